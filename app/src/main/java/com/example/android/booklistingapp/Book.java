@@ -6,6 +6,9 @@ package com.example.android.booklistingapp;
 
 public class Book {
 
+    /** The Google Books volume id of the book */
+    private String mId;
+
     /** The cover image url of the book */
     private String mCoverImageUrl;
 
@@ -27,8 +30,15 @@ public class Book {
     /** The url of the book */
     private String mUrl;
 
-    public Book (String coverImageUrl, String title, String author, double priceAmount,
+    /** The price of the book formatted for display, computed on first use */
+    private String mDisplayPrice;
+
+    /** The average rating of the book formatted for display, computed on first use */
+    private String mDisplayRating;
+
+    public Book (String id, String coverImageUrl, String title, String author, double priceAmount,
                  String priceCurrency, double rating, String url){
+        mId = id;
         mCoverImageUrl = coverImageUrl;
         mTitle = title;
         mAuthor = author;
@@ -38,6 +48,11 @@ public class Book {
         mUrl = url;
     }
 
+    /** Returns the Google Books volume id of the book, or null if it is unknown */
+    public String getId() {
+        return mId;
+    }
+
     /** Returns the cover image url of the book */
     public String getCoverImageUrl() {
         return mCoverImageUrl;
@@ -73,5 +88,30 @@ public class Book {
         return mUrl;
     }
 
+    /** Returns the price of the book in its currency, formatted for display */
+    public String getDisplayPrice() {
+        if (mDisplayPrice == null) {
+            mDisplayPrice = BookFormatter.formatPrice(mPriceAmount, mPriceCurrency);
+        }
+        return mDisplayPrice;
+    }
+
+    /** Returns the average rating of the book, formatted for display */
+    public String getDisplayRating() {
+        if (mDisplayRating == null) {
+            mDisplayRating = BookFormatter.formatBookRating(mRating);
+        }
+        return mDisplayRating;
+    }
+
+    /**
+     * Format the display texts of the book in advance, so that it doesn't have to be done
+     * on the main thread while the list is being scrolled.
+     */
+    public void prepareDisplayText() {
+        getDisplayPrice();
+        getDisplayRating();
+    }
+
 
 }
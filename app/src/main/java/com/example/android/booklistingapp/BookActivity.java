@@ -1,31 +1,40 @@
 package com.example.android.booklistingapp;
 
-import android.app.LoaderManager;
-import android.app.LoaderManager.LoaderCallbacks;
 import android.app.SearchManager;
 import android.content.Context;
 import android.content.Intent;
-import android.content.Loader;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Parcelable;
-import android.provider.SearchRecentSuggestions;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.SearchView;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.SubMenu;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
-public class BookActivity extends AppCompatActivity implements LoaderCallbacks<List<Book>>{
+public class BookActivity extends AppCompatActivity implements BookRepository.Listener {
 
     private static final String LOG_TAG = BookActivity.class.getSimpleName();
 
@@ -33,15 +42,79 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
 
     private static final String LIST_INSTANCE_STATE = "";
 
+    /**
+     * Key of the books shown by the list in the saved instance state, encoded by the {@link BookCodec}
+     */
+    private static final String BOOKS_STATE = "books";
+
+    /**
+     * Maximum number of books kept in the saved instance state, about a screen of them. The state
+     * shares the binder buffer of the whole process, so the rest of the books are loaded again,
+     * from the cache, by the search that is restored along with them.
+     */
+    private static final int MAX_SAVED_BOOK_COUNT = 20;
+
+    /**
+     * Keys of the query and the url of the search in the saved instance state, which outlive
+     * the process, unlike the intent set for the search
+     */
+    private static final String QUERY_STATE = "query";
+    private static final String URL_STATE = "url";
+
     /**
      * String variable that stores the recent search query entered in the search bar
      */
     private static String query;
 
     /**
-     * String variable containing the base of the query url
+     * Number of rows from the end of the list at which the next page starts loading
+     */
+    private static final int PAGE_LOAD_DISTANCE = 10;
+
+    /**
+     * How long the user has to stop typing before the search is run
+     */
+    private static final long SEARCH_DEBOUNCE_MILLIS = 400;
+
+    /**
+     * Queries shorter than this are not searched for while the user is typing
+     */
+    private static final int MIN_QUERY_LENGTH = 3;
+
+    /**
+     * Handler used to delay the search while the user is typing
      */
-    private static final String BASE_URL = "https://www.googleapis.com/books/v1/volumes?q=&printType=books&maxResults=35";
+    private final Handler mSearchHandler = new Handler();
+
+    /**
+     * How long the list has to be at rest before the details of the visible rows are prefetched
+     */
+    private static final long DETAILS_DWELL_MILLIS = 1500;
+
+    /**
+     * Handler used to delay the prefetch of the details until the list has been at rest for a while
+     */
+    private final Handler mPrefetchHandler = new Handler();
+
+    /**
+     * Prefetches the details of the visible rows, see {@link #schedulePrefetchDetails}
+     */
+    private Runnable mPrefetchDetailsRunnable;
+
+    /**
+     * The query typed by the user, waiting to be searched for
+     */
+    private String mPendingQuery;
+
+    /**
+     * Runs the search for the pending query once the user stopped typing
+     */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startSearch(mPendingQuery);
+        }
+    };
 
     /**
      * String variable for the final, formatted Google Book API url.
@@ -49,13 +122,61 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
     private String url;
 
     /**
-     * Constant value for the book loader ID. We can choose any integer.
-     * This really only comes into play if you're using multiple loaders.
+     * Maximum number of rows kept for reuse by the list, enough for a screen of rows
+     */
+    private static final int RECYCLED_VIEW_POOL_SIZE = 12;
+
+    /**
+     * Preference holding whether the broad search is turned on
+     */
+    private static final String PREF_BROAD_SEARCH = "broad_search";
+
+    /**
+     * Menu group and first item id of the currencies the books can be filtered by
+     */
+    private static final int GROUP_CURRENCY = 1;
+    private static final int FIRST_CURRENCY_ITEM_ID = 1000;
+
+    /**
+     * The lowest rating shown when only the highly rated books are shown
+     */
+    private static final double HIGH_RATING = 4.0;
+
+    /**
+     * The books loaded by the repository, before they are sorted and filtered
+     */
+    private List<Book> mLoadedBooks;
+
+    /**
+     * How the loaded books are sorted and filtered on the device
      */
-    private static final int BOOK_LOADER_ID = 1;
+    private final BookQuery mBookQuery = new BookQuery();
+
+    /**
+     * Index of the loaded books, rebuilt in the background when other books are loaded
+     */
+    private BookIndex mBookIndex;
+
+    private List<Book> mIndexedBooks;
 
     /**
-     * Adapter for the list of earthquakes
+     * Number of the latest sort or filter, used to drop outdated results
+     */
+    private int mQueryGeneration;
+
+    /**
+     * The currencies of the books matching the other filters, shown in the currency menu
+     */
+    private final List<String> mCurrencies = new ArrayList<>();
+    private final List<Integer> mCurrencyCounts = new ArrayList<>();
+
+    /**
+     * Runs the search and keeps its results while the activity is recreated
+     */
+    private BookRepository mRepository;
+
+    /**
+     * Adapter for the list of books
      */
     private BookAdapter mAdapter;
 
@@ -63,91 +184,416 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
     private TextView mEmptyStateTextView;
 
     /**
-     * Variable to store the recent search queries
+     * The books of the {@link ResultSnapshot} shown while the app started,
+     * which don't have to be written again
+     */
+    private List<Book> mSnapshotBooks;
+
+    /** Whether the books of the snapshot are shown, until the search brings newer books */
+    private boolean mShowingSnapshot;
+
+    /** When the activity was created, the startup phases are measured from there */
+    private long mCreateStart;
+
+    /** Whether the first frame showing books has been recorded */
+    private boolean mContentShown;
+
+    /**
+     * Handler used to run the setup that isn't needed for the first frame after it
+     */
+    private final Handler mStartupHandler = new Handler();
+
+    /**
+     * Suggests the recent search queries, and the titles and authors of the loaded books
      */
-    private SearchRecentSuggestions suggestions =
-            new SearchRecentSuggestions(this,
-                    QueryContentProvider.AUTHORITY,
-                    QueryContentProvider.MODE);
+    private SearchSuggestions mSuggestions;
+
+    /**
+     * Follows the network and its {@link FetchPolicy}, set up after the first frame
+     */
+    private NetworkMonitor mNetworkMonitor;
+
+    /**
+     * Starts the search over when the connection is back, if nothing could be loaded before
+     */
+    private final NetworkMonitor.Listener mNetworkListener = new NetworkMonitor.Listener() {
+        @Override
+        public void onNetworkChanged(boolean connected, FetchPolicy policy) {
+            if (connected) {
+                mRepository.retry();
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreateStart = Metrics.start();
+        Tracing.beginSection("BookActivity.onCreate");
         super.onCreate(savedInstanceState);
+        Tracing.beginSection("BookActivity.setContentView");
         setContentView(R.layout.activity_book);
+        Tracing.endSection();
 
         if(savedInstanceState!=null) {
             mListInstanceState = savedInstanceState.getParcelable(LIST_INSTANCE_STATE);
         }
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView bookListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView bookListView = (RecyclerView) findViewById(R.id.list);
 
         mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-        bookListView.setEmptyView(mEmptyStateTextView);
 
-        // Create a new adapter that takes an empty list of books as input
-        mAdapter = new BookAdapter(this, new ArrayList<Book>());
+        // Set an item click listener on the adapter, which opens the details of the selected book,
+        // or sends an intent to a web browser if the book has no volume id to load them with.
+        mAdapter = new BookAdapter(this, new BookAdapter.OnBookClickListener() {
+            @Override
+            public void onBookClick(Book currentBook) {
+                if (currentBook.getId() != null) {
+                    startActivity(BookDetailActivity.newIntent(BookActivity.this, currentBook));
+                    return;
+                }
 
-        // Set the adapter on the {@link ListView}
+                // Convert the String URL into a URI object (to pass into the Intent constructor)
+                Uri bookUri = Uri.parse(currentBook.getUrl());
+
+                // Create a new intent to view the book URI
+                Intent websiteIntent = new Intent (Intent.ACTION_VIEW, bookUri);
+
+                // Send the intent to launch a new activity
+                startActivity(websiteIntent);
+            }
+        });
+
+        // The empty view is only visible when the list has no books to show
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+                schedulePrefetchDetails();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(layoutManager);
+        DividerItemDecoration divider = new DividerItemDecoration(this, DividerItemDecoration.VERTICAL);
+        divider.setDrawable(ContextCompat.getDrawable(this, R.drawable.list_divider));
+        bookListView.addItemDecoration(divider);
+        bookListView.setHasFixedSize(true);
+        bookListView.getRecycledViewPool().setMaxRecycledViews(0, RECYCLED_VIEW_POOL_SIZE);
         bookListView.setAdapter(mAdapter);
 
-        // Get the intent, verify the action and get the query
+        // The covers are only loaded once the image library has been set up, after the first frame
+        mAdapter.setCoversEnabled(CoverImageLoader.isCreated());
+
+        mPrefetchDetailsRunnable = new Runnable() {
+            @Override
+            public void run() {
+                prefetchDetails(layoutManager);
+            }
+        };
+
+        // Show the books that were shown before the activity was recreated right away, even if
+        // the process was killed meanwhile, instead of waiting for them to be loaded again.
+        // They are in place before the list restores its scroll position.
+        if (savedInstanceState != null && savedInstanceState.getByteArray(BOOKS_STATE) != null) {
+            try {
+                // Stored in a table here, so they are shown before the scroll position is restored
+                mLoadedBooks = BookTable.of(BookCodec.decode(savedInstanceState.getByteArray(BOOKS_STATE)));
+                mAdapter.setBooks(mLoadedBooks);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem restoring the books", e);
+            }
+        }
+
+        // Get the intent, verify the action and get the query. Text shared with the app,
+        // e.g. a list of ISBNs, is searched for like a query.
         Intent intent = getIntent();
+        if (Intent.ACTION_SEND.equals(intent.getAction())
+                && intent.getStringExtra(Intent.EXTRA_TEXT) != null) {
+            intent = new Intent(Intent.ACTION_SEARCH)
+                    .putExtra(SearchManager.QUERY, intent.getStringExtra(Intent.EXTRA_TEXT));
+            setIntent(intent);
+        }
         if (Intent.ACTION_SEARCH.equals(intent.getAction())) {
             query = intent.getStringExtra(SearchManager.QUERY);
-            url = BASE_URL.replace("?q=", "?q=" + query).replace(" ","+");
+            url = QueryUtils.buildSearchUrl(query);
         }
 
-        // Set an item click listener on the ListView, which sends an intent to a web browser
-        // to open a website with more information about the selected earthquake.
-        bookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // After the process was killed, the intent is the one the activity was started with,
+        // and the search of the restored books is only known from the saved state
+        if (savedInstanceState != null && savedInstanceState.getString(URL_STATE) != null) {
+            query = savedInstanceState.getString(QUERY_STATE);
+            url = savedInstanceState.getString(URL_STATE);
+            setIntent(new Intent(Intent.ACTION_SEARCH).putExtra(SearchManager.QUERY, query));
+        }
+
+        // When the app is launched without a search, show the books of the last search on the
+        // first frame, and search for them again to refresh them
+        if (url == null && mLoadedBooks == null) {
+            Tracing.beginSection("BookActivity.restoreSnapshot");
+            ResultSnapshot snapshot = ResultSnapshot.read(this);
+            Tracing.endSection();
+            if (snapshot != null) {
+                query = snapshot.getQuery();
+                url = QueryUtils.buildSearchUrl(query);
+                setIntent(new Intent(Intent.ACTION_SEARCH).putExtra(SearchManager.QUERY, query));
+                mSnapshotBooks = snapshot.getBooks();
+                mLoadedBooks = mSnapshotBooks;
+                mShowingSnapshot = true;
+                mAdapter.setBooks(mLoadedBooks);
+            }
+        }
+        if (mLoadedBooks != null) {
+            findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+        }
+
+        // Load the next page when the user gets close to the end of the list, and the previous
+        // page when the user scrolls back to the top of the pages that are still in memory
+        bookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long l) {
-                // Find the current earthquake that was clicked on
-                Book currentBook = mAdapter.getItem(position);
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mAdapter.getItemCount();
+                int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+                int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if (totalItemCount == 0 || firstVisibleItem == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                if (lastVisibleItem >= totalItemCount - PAGE_LOAD_DISTANCE) {
+                    mRepository.loadNextPage();
+                } else if (firstVisibleItem < PAGE_LOAD_DISTANCE) {
+                    mRepository.loadPreviousPage();
+                }
+            }
 
-                // Convert the String URL into a URI object (to pass into the Intent constructor)
-                Uri bookUri = Uri.parse(currentBook.getUrl());
+            // Don't decode covers of rows that fly by while the list is flung, and once the list
+            // comes to rest, fetch the covers of the next screen of rows ahead of time. The details
+            // of the rows are only prefetched once the list has stayed at rest for a while.
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                mPrefetchHandler.removeCallbacks(mPrefetchDetailsRunnable);
+                if (mAdapter.areCoversEnabled()) {
+                    CoverImageLoader coverImageLoader = CoverImageLoader.getInstance(BookActivity.this);
+                    if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+                        coverImageLoader.pause();
+                        return;
+                    }
+                    coverImageLoader.resume();
+                    if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                        prefetchCovers(layoutManager);
+                    }
+                }
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    schedulePrefetchDetails();
+                }
+            }
+        });
 
-                // Create a new intent to view the earthquake URI
-                Intent websiteIntent = new Intent (Intent.ACTION_VIEW, bookUri);
+        mSuggestions = SearchSuggestions.getInstance(this);
 
-                // Send the intent to launch a new activity
-                startActivity(websiteIntent);
+        // Set up everything the first frame doesn't need once it has been drawn
+        runAfterFirstFrame(new Runnable() {
+            @Override
+            public void run() {
+                onFirstFrame();
             }
         });
 
-        // Get a reference to the ConnectivityManager to check state of network connectivity
-        ConnectivityManager connMgr = (ConnectivityManager)getSystemService(Context.CONNECTIVITY_SERVICE);
+        // Start the search of the intent. If the activity was recreated, the repository is still
+        // running or holding the same search, and its books are delivered once the activity starts.
+        // The search is started without a connection as well, because previous searches
+        // can be served from the cache.
+        mRepository = BookRepository.getInstance(this);
+        mRepository.search(query, url, isBroadSearch());
+        if (url == null && mLoadedBooks == null) {
+            // There is nothing to search for, so there is nothing to wait for either
+            onBooksLoaded(null);
+        }
+        Tracing.endSection();
+    }
 
-        // Get details on the currently active default data network
-        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+    /**
+     * Run the given task once the first frame of the activity has been drawn.
+     */
+    private void runAfterFirstFrame(final Runnable task) {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // The frame is drawn right after this call, and the task runs after the frame
+                mStartupHandler.post(task);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Record the startup time, and set up what was deferred to keep it off the first frame: the
+     * prefetch job, the suggestions of the search bar, the network monitor and the image library.
+     */
+    private void onFirstFrame() {
+        Metrics.recordSince(Metrics.STARTUP_FIRST_FRAME, mCreateStart);
+        if (mAdapter.getItemCount() > 0) {
+            recordContentShown();
+        }
+        if (isFinishing()) {
+            return;
+        }
+        Tracing.beginSection("BookActivity.onFirstFrame");
+
+        // Keep the results of the recent searches warm in the background
+        PrefetchJobService.schedule(this);
+
+        // Read the suggestions before the user starts typing
+        mSuggestions.warmUp();
+
+        // Follow the network, it's usually started by the search already
+        mNetworkMonitor = NetworkMonitor.getInstance(this);
+        mNetworkMonitor.addListener(mNetworkListener);
+
+        // Set up the image library in the background, and load the covers once it's ready
+        if (!mAdapter.areCoversEnabled()) {
+            final Context context = getApplicationContext();
+            PriorityExecutor.execute(PriorityExecutor.PRIORITY_IMAGE, new Runnable() {
+                @Override
+                public void run() {
+                    CoverImageLoader.getInstance(context);
+                    mStartupHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mAdapter.setCoversEnabled(true);
+                        }
+                    });
+                }
+            });
+        }
+        Tracing.endSection();
+    }
 
-        if (networkInfo != null && networkInfo.isConnected()){
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
+    /** Record the time to the first frame showing books, once */
+    private void recordContentShown() {
+        if (!mContentShown) {
+            mContentShown = true;
+            Metrics.recordSince(Metrics.STARTUP_CONTENT, mCreateStart);
+        }
+    }
 
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            loaderManager.initLoader(BOOK_LOADER_ID, null, this);
-        } else {
-            // Otherwise, display error
-            // First, hide loading indicator so error message will be visible
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.GONE);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mRepository.addListener(this);
+        if (mNetworkMonitor != null) {
+            mNetworkMonitor.addListener(mNetworkListener);
+            // The connection may have come back while the activity was stopped
+            if (mNetworkMonitor.isConnected()) {
+                mRepository.retry();
+            }
+        }
+    }
 
-            // Update empty state with no connection error message
-            mEmptyStateTextView.setText(R.string.no_internet_connection);
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        // The query was submitted, so it's searched for right away
+        if (Intent.ACTION_SEARCH.equals(intent.getAction())) {
+            mSearchHandler.removeCallbacks(mSearchRunnable);
+            String submittedQuery = intent.getStringExtra(SearchManager.QUERY);
+            // Lists of ISBNs are not worth suggesting again
+            if (IsbnLookup.parseIsbnList(submittedQuery) == null) {
+                mSuggestions.saveQuery(submittedQuery);
+            }
+            startSearch(submittedQuery);
+        } else if (Intent.ACTION_SEND.equals(intent.getAction())
+                && intent.getStringExtra(Intent.EXTRA_TEXT) != null) {
+            mSearchHandler.removeCallbacks(mSearchRunnable);
+            startSearch(intent.getStringExtra(Intent.EXTRA_TEXT));
         }
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mRepository.removeListener(this);
+        if (mNetworkMonitor != null) {
+            mNetworkMonitor.removeListener(mNetworkListener);
+        }
+        mPrefetchHandler.removeCallbacks(mPrefetchDetailsRunnable);
+
+        // Keep the books shown for the next time the app starts
+        if (mLoadedBooks != null && mLoadedBooks != mSnapshotBooks) {
+            mSnapshotBooks = mLoadedBooks;
+            ResultSnapshot.write(this, query, mLoadedBooks);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mStartupHandler.removeCallbacksAndMessages(null);
+        // Nobody is going to show the books when the user leaves, so give up on the search
+        if (isFinishing()) {
+            mRepository.cancel();
+        }
+    }
+
+    /**
+     * Search for the given query, replacing the search that is running at the moment. While the
+     * results are loading, the cached results of an earlier query that the new query starts with
+     * are shown, filtered to the books that match the new query. A list of ISBNs is looked up
+     * as a whole, and its books show up as the batches of the lookup arrive.
+     */
+    private void startSearch(String newQuery) {
+        if (newQuery == null || newQuery.trim().isEmpty()) {
+            return;
+        }
+        String newUrl = QueryUtils.buildSearchUrl(newQuery);
+        if (newUrl.equals(url)) {
+            return;
+        }
+        query = newQuery;
+        url = newUrl;
+        mShowingSnapshot = false;
+
+        // Keep the query in the intent, so it's searched for again if the activity is recreated
+        setIntent(new Intent(Intent.ACTION_SEARCH).putExtra(SearchManager.QUERY, newQuery));
+
+        // The prefixes of a list of ISBNs are not searches of their own
+        mLoadedBooks = IsbnLookup.parseIsbnList(newQuery) != null ? null
+                : QueryUtils.findPrefixResults(BookCache.getInstance(this), newQuery, getFetchPolicy().pageSize);
+        showBooks();
+        ((RecyclerView) findViewById(R.id.list)).scrollToPosition(0);
+
+        // The new search cancels the requests of the previous query
+        mRepository.search(query, url, isBroadSearch());
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        ListView bookListView = (ListView) findViewById(R.id.list);
-        outState.putParcelable(LIST_INSTANCE_STATE, bookListView.onSaveInstanceState());
+        RecyclerView bookListView = (RecyclerView) findViewById(R.id.list);
+        outState.putParcelable(LIST_INSTANCE_STATE, bookListView.getLayoutManager().onSaveInstanceState());
+        if (url != null) {
+            outState.putString(QUERY_STATE, query);
+            outState.putString(URL_STATE, url);
+        }
+        BookTable books = mAdapter.getBooks();
+        if (!books.isEmpty()) {
+            outState.putByteArray(BOOKS_STATE,
+                    BookCodec.encode(books.subList(0, Math.min(books.size(), MAX_SAVED_BOOK_COUNT))));
+        }
     }
 
     @Override
@@ -155,6 +601,9 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
         // Inflate the options menu from XML
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.menu_search, menu);
+        menu.findItem(R.id.broadSearch).setChecked(isBroadSearch());
+        menu.findItem(R.id.forSaleOnly).setChecked(mBookQuery.isForSaleOnly());
+        menu.findItem(R.id.highlyRated).setChecked(mBookQuery.getMinRating() >= HIGH_RATING);
 
         // Get the SearchView and set the searchable configuration
         SearchManager searchManager = (SearchManager) getSystemService(Context.SEARCH_SERVICE);
@@ -166,6 +615,25 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
         searchView.setSubmitButtonEnabled(true);
         searchView.setQueryRefinementEnabled(true);
 
+        // Search while the user is typing, once the typing has paused for a moment
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String submittedQuery) {
+                // Let the SearchView send the search intent, which is handled in onNewIntent
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearchHandler.removeCallbacks(mSearchRunnable);
+                if (newText.trim().length() >= MIN_QUERY_LENGTH) {
+                    mPendingQuery = newText;
+                    mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MILLIS);
+                }
+                return true;
+            }
+        });
+
         return true;
     }
 
@@ -173,14 +641,56 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case R.id.search_bar:
-                suggestions.saveRecentQuery(query, null);
                 return true;
 
             case R.id.clearHistory:
-                suggestions.clearHistory();
+                mSuggestions.clearHistory();
+                return true;
+
+            case R.id.sortRelevance:
+                return sortBy(item, BookQuery.SORT_RELEVANCE, false);
+
+            case R.id.sortRating:
+                return sortBy(item, BookQuery.SORT_RATING, true);
+
+            case R.id.sortPriceLow:
+                return sortBy(item, BookQuery.SORT_PRICE, false);
+
+            case R.id.sortPriceHigh:
+                return sortBy(item, BookQuery.SORT_PRICE, true);
+
+            case R.id.sortTitle:
+                return sortBy(item, BookQuery.SORT_TITLE, false);
+
+            case R.id.forSaleOnly:
+                item.setChecked(!item.isChecked());
+                mBookQuery.setForSaleOnly(item.isChecked());
+                showBooks();
+                return true;
+
+            case R.id.highlyRated:
+                item.setChecked(!item.isChecked());
+                mBookQuery.setMinRating(item.isChecked() ? HIGH_RATING : 0);
+                showBooks();
+                return true;
+
+            case R.id.broadSearch:
+                boolean broadSearch = !item.isChecked();
+                item.setChecked(broadSearch);
+                getPreferences(MODE_PRIVATE).edit().putBoolean(PREF_BROAD_SEARCH, broadSearch).apply();
+                // Search for the current query again in the new mode
+                if (url != null) {
+                    mRepository.search(query, url, broadSearch);
+                }
                 return true;
 
             default:
+                if (item.getGroupId() == GROUP_CURRENCY) {
+                    int index = item.getItemId() - FIRST_CURRENCY_ITEM_ID;
+                    mBookQuery.setCurrency(index >= 0 && index < mCurrencies.size() ? mCurrencies.get(index) : null);
+                    showBooks();
+                    return true;
+                }
                 // If we got here, the user's action was not recognized.
                 // Invoke the superclass to handle it.
                 return super.onOptionsItemSelected(item);
@@ -188,33 +698,264 @@ public class BookActivity extends AppCompatActivity implements LoaderCallbacks<L
     }
 
     @Override
-    public Loader<List<Book>> onCreateLoader(int id, Bundle bundle) {
-        return new BookLoader(BookActivity.this, url);
-    }
-
-    @Override
-    public void onLoadFinished(Loader<List<Book>> loader, List<Book> books) {
+    public void onBooksLoaded(List<Book> books) {
+        boolean hasBooks = books != null && !books.isEmpty();
+
+        // Keep showing the books of the last search if refreshing them brings nothing,
+        // e.g. without a connection
+        if (mShowingSnapshot && !hasBooks) {
+            findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+            return;
+        }
+        mShowingSnapshot = false;
 
         // Hide loading indicator because the data has been loaded
         View loadingIndicator = findViewById(R.id.loading_indicator);
         loadingIndicator.setVisibility(View.GONE);
 
-        // Set empty state text to display "No books found."
-        mEmptyStateTextView.setText(R.string.no_books);
+        // Set empty state text to display "No books found.", or the no connection error message
+        // if nothing could be loaded without a connection. The connection is only checked then.
+        if (hasBooks || isConnected()) {
+            mEmptyStateTextView.setText(R.string.no_books);
+        } else {
+            mEmptyStateTextView.setText(R.string.no_internet_connection);
+        }
+
+        // Only the rows that changed since the previous delivery are updated, so the batches
+        // delivered while the response is parsed and the pages loaded while scrolling cost
+        // only as much as the books they add or remove.
+        mLoadedBooks = books;
+        showBooks();
+        if (hasBooks) {
+            recordContentShown();
+        }
+    }
+
+    /**
+     * Returns true if there is a network connection at the moment.
+     */
+    private boolean isConnected() {
+        // Get a reference to the ConnectivityManager to check state of network connectivity
+        ConnectivityManager connMgr = (ConnectivityManager)getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        // Get details on the currently active default data network
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    /**
+     * Fill the currency menu with the currencies of the books matching the other filters
+     */
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem currencyItem = menu.findItem(R.id.currency);
+        SubMenu currencyMenu = currencyItem.getSubMenu();
+        currencyMenu.clear();
+        MenuItem allItem = currencyMenu.add(GROUP_CURRENCY, FIRST_CURRENCY_ITEM_ID - 1, 0, R.string.allCurrencies);
+        allItem.setChecked(mBookQuery.getCurrency() == null);
+        for (int i = 0; i < mCurrencies.size(); i++) {
+            String currency = mCurrencies.get(i);
+            MenuItem item = currencyMenu.add(GROUP_CURRENCY, FIRST_CURRENCY_ITEM_ID + i, i + 1,
+                    getString(R.string.currencyCount, currency, mCurrencyCounts.get(i)));
+            item.setChecked(currency.equals(mBookQuery.getCurrency()));
+        }
+        currencyMenu.setGroupCheckable(GROUP_CURRENCY, true, true);
+        currencyItem.setVisible(!mCurrencies.isEmpty());
+        return super.onPrepareOptionsMenu(menu);
+    }
 
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
+    private boolean sortBy(MenuItem item, int sortBy, boolean descending) {
+        item.setChecked(true);
+        mBookQuery.setSort(sortBy, descending);
+        showBooks();
+        return true;
+    }
 
-        // If there is a valid list of {@link Book}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
+    /**
+     * Show the loaded books, sorted and filtered by the current {@link BookQuery}. The books are
+     * indexed and queried on a background thread, and only the latest result is shown.
+     * Must be called on the main thread.
+     */
+    private void showBooks() {
+        int generation = ++mQueryGeneration;
+        List<Book> books = mLoadedBooks;
+        if (books == null) {
+            mAdapter.setBooks(null);
+            updateCurrencies(null);
+            return;
+        }
 
-        if (books != null && !books.isEmpty()){
-            mAdapter.addAll(books);
+        // Without sorting and filtering the books are shown right away,
+        // only the currencies are counted in the background
+        if (mBookQuery.isDefault()) {
+            mAdapter.setBooks(books);
         }
+
+        BookIndex currentIndex = books == mIndexedBooks ? mBookIndex : null;
+        // The list is waiting for this work, so it's kept off the pool of the requests,
+        // whose threads may all be waiting for slow responses
+        new QueryBooksTask(this, generation, books, currentIndex, new BookQuery(mBookQuery))
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
+    /**
+     * Show the result of the query of the given generation, and keep the index of the books for
+     * the next query of the same books, unless a newer query was made meanwhile.
+     */
+    private void onBooksQueried(int generation, List<Book> books, BookIndex index, BookQuery bookQuery,
+                                BookIndex.Result result) {
+        if (generation != mQueryGeneration || isFinishing()) {
+            return;
+        }
+        mIndexedBooks = books;
+        mBookIndex = index;
+        if (!bookQuery.isDefault()) {
+            mAdapter.setBooks(result.getBooks());
+        }
+        updateCurrencies(result.getCurrencyCounts());
+    }
+
+    private void updateCurrencies(Map<String, Integer> currencyCounts) {
+        mCurrencies.clear();
+        mCurrencyCounts.clear();
+        if (currencyCounts != null) {
+            for (Map.Entry<String, Integer> entry : currencyCounts.entrySet()) {
+                mCurrencies.add(entry.getKey());
+                mCurrencyCounts.add(entry.getValue());
+            }
+        }
+        supportInvalidateOptionsMenu();
+    }
+
+    /**
+     * Returns true if the queries are also searched for in the titles, the authors and the ISBNs,
+     * see {@link FederatedSearch}
+     */
+    private boolean isBroadSearch() {
+        return getPreferences(MODE_PRIVATE).getBoolean(PREF_BROAD_SEARCH, false);
+    }
+
+    /**
+     * Write out the metrics of the search pipeline, e.g. with
+     * {@code adb shell dumpsys activity com.example.android.booklistingapp}.
+     * Pass --reset-metrics to start recording from scratch afterwards.
+     */
     @Override
-    public void onLoaderReset(Loader<List<Book>> loader) {
-        mAdapter.clear();
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Metrics.dump(prefix, writer);
+        if (args != null && Arrays.asList(args).contains("--reset-metrics")) {
+            Metrics.reset();
+        }
+    }
+
+    /**
+     * Returns the fetch policy of the current network, or the default one until the network
+     * monitor is set up.
+     */
+    private FetchPolicy getFetchPolicy() {
+        return mNetworkMonitor != null ? mNetworkMonitor.getPolicy() : FetchPolicy.GOOD;
+    }
+
+    /**
+     * Prefetch the covers of the screen of rows below the last visible row,
+     * unless the network is too slow to load what the user may never see.
+     */
+    private void prefetchCovers(LinearLayoutManager layoutManager) {
+        if (!getFetchPolicy().prefetchCovers) {
+            return;
+        }
+        int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+        int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+        if (firstVisibleItem == RecyclerView.NO_POSITION) {
+            return;
+        }
+        int visibleItemCount = lastVisibleItem - firstVisibleItem + 1;
+        int end = Math.min(mAdapter.getItemCount(), lastVisibleItem + 1 + visibleItemCount);
+        CoverImageLoader coverImageLoader = CoverImageLoader.getInstance(this);
+        BookTable books = mAdapter.getBooks();
+        for (int position = lastVisibleItem + 1; position < end; position++) {
+            coverImageLoader.prefetch(books.getCoverImageUrl(position));
+        }
+    }
+
+    /**
+     * Prefetch the details of the visible rows once the list has been at rest for
+     * {@link #DETAILS_DWELL_MILLIS}, replacing the prefetch scheduled before.
+     */
+    private void schedulePrefetchDetails() {
+        if (mPrefetchDetailsRunnable == null) {
+            return;
+        }
+        mPrefetchHandler.removeCallbacks(mPrefetchDetailsRunnable);
+        mPrefetchHandler.postDelayed(mPrefetchDetailsRunnable, DETAILS_DWELL_MILLIS);
+    }
+
+    /**
+     * Prefetch the details of the first rows that are completely visible, which are likely
+     * to be opened since the user has been looking at them for a while. How many depends
+     * on the network, see {@link FetchPolicy#prefetchDetails}.
+     */
+    private void prefetchDetails(LinearLayoutManager layoutManager) {
+        int firstVisibleItem = layoutManager.findFirstCompletelyVisibleItemPosition();
+        int lastVisibleItem = layoutManager.findLastCompletelyVisibleItemPosition();
+        if (firstVisibleItem == RecyclerView.NO_POSITION) {
+            return;
+        }
+        int end = Math.min(Math.min(mAdapter.getItemCount(), lastVisibleItem + 1),
+                firstVisibleItem + getFetchPolicy().prefetchDetails);
+        BookDetailsCache detailsCache = BookDetailsCache.getInstance();
+        BookTable books = mAdapter.getBooks();
+        for (int position = firstVisibleItem; position < end; position++) {
+            detailsCache.prefetch(books.getId(position));
+        }
+    }
+
+    /**
+     * Show the empty view if there are no books in the list, and hide it otherwise.
+     */
+    private void updateEmptyView() {
+        mEmptyStateTextView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Indexes the books if needed and queries them in the background. The task only holds a weak
+     * reference to the activity, so a slow query doesn't keep a finished activity in memory.
+     */
+    private static class QueryBooksTask extends AsyncTask<Void, Void, BookIndex.Result> {
+
+        private final WeakReference<BookActivity> mActivity;
+        private final int mGeneration;
+        private final List<Book> mBooks;
+        private final BookQuery mBookQuery;
+
+        /** The index of the books, or null until it's built in the background */
+        private BookIndex mIndex;
+
+        QueryBooksTask(BookActivity activity, int generation, List<Book> books, BookIndex index,
+                       BookQuery bookQuery) {
+            mActivity = new WeakReference<>(activity);
+            mGeneration = generation;
+            mBooks = books;
+            mIndex = index;
+            mBookQuery = bookQuery;
+        }
+
+        @Override
+        protected BookIndex.Result doInBackground(Void... params) {
+            if (mIndex == null) {
+                mIndex = new BookIndex(mBooks);
+            }
+            return mIndex.query(mBookQuery);
+        }
+
+        @Override
+        protected void onPostExecute(BookIndex.Result result) {
+            BookActivity activity = mActivity.get();
+            if (activity != null) {
+                activity.onBooksQueried(mGeneration, mBooks, mIndex, mBookQuery, result);
+            }
+        }
     }
 }
@@ -1,20 +1,21 @@
 package com.example.android.booklistingapp;
 
 import android.content.Context;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.squareup.picasso.Picasso;
-
-import java.text.DecimalFormat;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -23,118 +24,269 @@ import butterknife.ButterKnife;
  * An {@link BookAdapter} knows how to create a list item layout for each book
  * in the data source (a list of {@link Book} objects).
  *
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user
+ * These list item layouts will be provided to a RecyclerView to be displayed to the user.
+ * When a new list of books is set, the difference to the current list is computed in the
+ * background, and only the rows that changed are updated. The books are kept in a
+ * {@link BookTable}, and the rows are bound from its columns without creating {@link Book} objects.
  */
 
-public class BookAdapter extends ArrayAdapter<Book>{
+public class BookAdapter extends RecyclerView.Adapter<BookAdapter.ViewHolder> {
+
+    /**
+     * Callback invoked when a row of the list is clicked
+     */
+    public interface OnBookClickListener {
+        void onBookClick(Book book);
+    }
+
+    private final Context mContext;
+
+    private final OnBookClickListener mClickListener;
+
+    /** The books shown at the moment */
+    private BookTable mBooks = BookTable.EMPTY;
+
+    /** The stable ids of the rows of the books shown at the moment */
+    private long[] mItemIds = new long[0];
+
+    /** Number of the latest list set on the adapter, used to drop outdated diff results */
+    private int mGeneration;
+
+    /** The stable ids of the rows of the books shown at the moment, by volume id */
+    private Map<String, Long> mStableIds = new HashMap<>();
+
+    private long mNextStableId;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Whether the covers are loaded into the rows. While the app starts, the rows only show the
+     * placeholder, until the image library has been set up off the main thread.
+     */
+    private boolean mCoversEnabled = true;
+
+    /** Time spent binding rows since the last frame, recorded once the frame is done */
+    private long mFrameBindNanos;
+
+    private final Runnable mRecordFrameBindTime = new Runnable() {
+        @Override
+        public void run() {
+            Metrics.recordNanos(Metrics.FRAME_BIND, mFrameBindNanos);
+            mFrameBindNanos = 0;
+        }
+    };
 
     /**
      * Constructs a new {@link BookAdapter}
      * @param context of the app
-     * @param books is the list of books, which is data source of the adapter
+     * @param clickListener is notified when a book is clicked
      */
-    public BookAdapter(Context context, List<Book> books){
-        // Here, we initialize the ArrayAdapter's internal storage for the context and the list.
-        // the second argument is used when the ArrayAdapter is populating a single TextView.
-        // Because this is a custom adapter for two TextViews and an ImageView, the adapter is not
-        // going to use this second argument, so it can be any value. Here, we used 0.
-        super(context, 0, books);
+    public BookAdapter(Context context, OnBookClickListener clickListener){
+        mContext = context;
+        mClickListener = clickListener;
+        setHasStableIds(true);
     }
 
+    /**
+     * Load the covers into the rows or not, see {@link #mCoversEnabled}. The visible rows are
+     * bound again when the covers are enabled. Must be called on the main thread.
+     */
+    public void setCoversEnabled(boolean coversEnabled) {
+        if (mCoversEnabled == coversEnabled) {
+            return;
+        }
+        mCoversEnabled = coversEnabled;
+        if (coversEnabled) {
+            notifyItemRangeChanged(0, getItemCount());
+        }
+    }
 
+    public boolean areCoversEnabled() {
+        return mCoversEnabled;
+    }
 
     /**
-     * Get a View that displays the data at the specified position in the data set
-     * @param position The position of the item within the adapter's data set whose view we want.
-     * @param convertView The old view to reuse, if possible.
-     * @param parent The parent that this view will eventually be attached to.
+     * Replace the books shown by the adapter. The books are stored in a table, and the rows
+     * that have to be inserted, removed, moved or changed are computed, on a background thread,
+     * and dispatched on the main thread. The work runs on the pool of {@link AsyncTask}, not on
+     * the {@link PriorityExecutor}, so it never waits behind slow requests. The books are shown
+     * right away if they are a table already and the list is empty, e.g. while it's restored.
+     * Must be called on the main thread.
      */
-    @NonNull
-    @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse.
-        // Otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        // Initialize a new ViewHolder instance to reference the child views for later actions.
-        // This way if a view already exists we can retrieve the holder, instead of calling
-        // findViewById
-        ViewHolder holder;
-        if (listItemView == null){
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.book_list_item, parent, false);
-            holder = new ViewHolder(listItemView);
-            listItemView.setTag(holder);
-        } else {
-            holder = (ViewHolder)listItemView.getTag();
-        }
+    public void setBooks(final List<Book> books) {
+        final BookTable oldBooks = mBooks;
+        final int generation = ++mGeneration;
 
-        // Find the Book at the given position in the list of books
-        Book currentBook = getItem(position);
+        // There is nothing to compare or to convert
+        if (books == null || books.isEmpty() || (oldBooks.isEmpty() && books instanceof BookTable)) {
+            BookTable newBooks = books == null || books.isEmpty() ? BookTable.EMPTY : (BookTable) books;
+            mItemIds = assignStableIds(newBooks);
+            mBooks = newBooks;
+            notifyDataSetChanged();
+            return;
+        }
 
-        if (currentBook != null) {
-            // Find the TextView in the book_list_item.xml layout with the ID book_title
-            if (!TextUtils.isEmpty(currentBook.getTitle())) {
-                holder.bookTitle.setVisibility(View.VISIBLE);
-                holder.bookTitle.setText(currentBook.getTitle());
-            } else {
-                holder.bookTitle.setVisibility(View.INVISIBLE);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final BookTable newBooks = BookTable.of(books);
+                final DiffUtil.DiffResult diff = oldBooks.isEmpty() ? null
+                        : DiffUtil.calculateDiff(new BookDiffCallback(oldBooks, newBooks));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list was set while the difference was being computed
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mItemIds = assignStableIds(newBooks);
+                        mBooks = newBooks;
+                        if (diff != null) {
+                            diff.dispatchUpdatesTo(BookAdapter.this);
+                        } else {
+                            notifyDataSetChanged();
+                        }
+                    }
+                });
             }
+        });
+    }
 
-            // Find the TextView in the book_list_item.xml layout with the ID book_author
-            if (!TextUtils.isEmpty(currentBook.getAuthor())) {
-                holder.bookAuthor.setText(currentBook.getAuthor());
-            } else holder.bookAuthor.setText(R.string.no_author_info);
-
-            // Find the TextView in the book_list_item.xml layout with the ID book_price
-            String formattedPriceAmount = formatPriceAmount(currentBook.getPriceAmount());
-            String bookPrice = currentBook.getCurrency() + formattedPriceAmount;
-            holder.bookPrice.setText(bookPrice);
-
-            // Find the TextView in the book_list_item.xml layout with the ID book_average_rating
-            if (currentBook.getRating() >= 1.0) {
-                String formattedBookRating = formatBookRating(currentBook.getRating());
-                holder.bookRating.setVisibility(View.VISIBLE);
-                holder.bookRating.setText(formattedBookRating);
-                holder.bookRatingStar.setVisibility(View.VISIBLE);
-            } else {
-                holder.bookRating.setVisibility(View.INVISIBLE);
-                holder.bookRatingStar.setVisibility(View.GONE);
-            }
+    /** Returns the books shown at the moment */
+    public BookTable getBooks() {
+        return mBooks;
+    }
 
-            Picasso
-                .with(getContext())
-                .load(currentBook.getCoverImageUrl())
-                .placeholder(R.drawable.placeholder)
-                .into(holder.bookCover);
+    /**
+     * Returns the book at the given position, which is created from the columns of the table
+     * on every call
+     */
+    public Book getItem(int position) {
+        return mBooks.get(position);
+    }
 
-            return listItemView;
-        } else return null;
+    @Override
+    public int getItemCount() {
+        return mBooks.size();
     }
+
     /**
-     * Return the formatted rating string showing 1 decimal place (i.e. "3.2")
-     * from a decimal rating value.
+     * Returns the stable id of the row at the given position, which stays the same as long as
+     * the same volume is shown, even if its position changes.
      */
-    private String formatBookRating(double rating){
-        DecimalFormat ratingFormat;
-        if (rating != 0.0) {
-            ratingFormat = new DecimalFormat("0.0");
-            return ratingFormat.format(rating);
-        } else return "No rating";
+    @Override
+    public long getItemId(int position) {
+        return mItemIds[position];
     }
 
-    private String formatPriceAmount(double price){
-        DecimalFormat priceFormat;
-        if (price != 0.0) {
-            priceFormat = new DecimalFormat("#,###.##");
-            return priceFormat.format(price);
-        } else return "No price available";
+    /**
+     * Returns the stable ids of the rows of the given books, which are about to be shown. The
+     * books shown at the moment keep their ids, and the others get new ones. Only the ids of the
+     * given books are kept afterwards, so the ids of the past searches don't pile up.
+     */
+    private long[] assignStableIds(BookTable books) {
+        Map<String, Long> stableIds = new HashMap<>(books.size() * 2);
+        long[] itemIds = new long[books.size()];
+        for (int position = 0; position < itemIds.length; position++) {
+            String key = getStableKey(books, position);
+            Long id = stableIds.get(key);
+            if (id == null) {
+                id = mStableIds.get(key);
+            }
+            if (id == null) {
+                id = mNextStableId++;
+            }
+            stableIds.put(key, id);
+            itemIds[position] = id;
+        }
+        mStableIds = stableIds;
+        return itemIds;
+    }
+
+    /** Returns the key of the stable id of the given book, its volume id if it has one */
+    private static String getStableKey(BookTable books, int position) {
+        String id = books.getId(position);
+        return id != null ? id : books.getUrl(position);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(mContext).inflate(
+                R.layout.book_list_item, parent, false);
+        final ViewHolder holder = new ViewHolder(listItemView);
+        listItemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && mClickListener != null) {
+                    mClickListener.onBookClick(getItem(position));
+                }
+            }
+        });
+        return holder;
+    }
+
+    /**
+     * Display the data of the book at the given position in the views of the holder
+     * @param holder The ViewHolder of the row, which holds the views of the list item layout.
+     * @param position The position of the item within the adapter's data set.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long bindStart = Metrics.start();
+
+        // The columns of the book at the given position are read from the table
+        BookTable books = mBooks;
+
+        // Find the TextView in the book_list_item.xml layout with the ID book_title
+        String title = books.getTitle(position);
+        if (!TextUtils.isEmpty(title)) {
+            holder.bookTitle.setVisibility(View.VISIBLE);
+            holder.bookTitle.setText(title);
+        } else {
+            holder.bookTitle.setVisibility(View.INVISIBLE);
+        }
+
+        // Find the TextView in the book_list_item.xml layout with the ID book_author
+        String author = books.getAuthor(position);
+        if (!TextUtils.isEmpty(author)) {
+            holder.bookAuthor.setText(author);
+        } else holder.bookAuthor.setText(R.string.no_author_info);
+
+        // Find the TextView in the book_list_item.xml layout with the ID book_price.
+        // The display texts are formatted when the books are loaded, not while scrolling.
+        holder.bookPrice.setText(books.getDisplayPrice(position));
+
+        // Find the TextView in the book_list_item.xml layout with the ID book_average_rating
+        if (books.getRating(position) >= 1.0) {
+            holder.bookRating.setVisibility(View.VISIBLE);
+            holder.bookRating.setText(books.getDisplayRating(position));
+            holder.bookRatingStar.setVisibility(View.VISIBLE);
+        } else {
+            holder.bookRating.setVisibility(View.INVISIBLE);
+            holder.bookRatingStar.setVisibility(View.GONE);
+        }
+
+        if (mCoversEnabled) {
+            CoverImageLoader.getInstance(mContext).load(books.getCoverImageUrl(position), holder.bookCover);
+        } else {
+            holder.bookCover.setImageResource(R.drawable.placeholder);
+        }
+
+        // The rows of a frame are bound in one layout pass, so the time of the frame is
+        // recorded by a message that runs after the pass
+        long bindNanos = System.nanoTime() - bindStart;
+        Metrics.recordNanos(Metrics.BIND, bindNanos);
+        if (mFrameBindNanos == 0) {
+            mMainHandler.post(mRecordFrameBindTime);
+        }
+        mFrameBindNanos += Math.max(1, bindNanos);
     }
 
     /**
      * A {@link ViewHolder} class to cache child views at runtime
      */
-    static class ViewHolder {
+    static class ViewHolder extends RecyclerView.ViewHolder {
         @BindView(R.id.book_title) TextView bookTitle;
         @BindView(R.id.book_author) TextView bookAuthor;
         @BindView(R.id.book_price) TextView bookPrice;
@@ -143,7 +295,44 @@ public class BookAdapter extends ArrayAdapter<Book>{
         @BindView(R.id.book_cover) ImageView bookCover;
 
         ViewHolder(View view){
+            super(view);
             ButterKnife.bind(this, view);
         }
     }
+
+    /**
+     * Compares two lists of books for {@link DiffUtil}. Two rows show the same item if they show
+     * the same volume, and their contents are the same if everything displayed is the same.
+     */
+    private static class BookDiffCallback extends DiffUtil.Callback {
+
+        private final BookTable mOldBooks;
+        private final BookTable mNewBooks;
+
+        BookDiffCallback(BookTable oldBooks, BookTable newBooks) {
+            mOldBooks = oldBooks;
+            mNewBooks = newBooks;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldBooks.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewBooks.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return getStableKey(mOldBooks, oldItemPosition)
+                    .equals(getStableKey(mNewBooks, newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldBooks.contentEquals(oldItemPosition, mNewBooks, newItemPosition);
+        }
+    }
 }
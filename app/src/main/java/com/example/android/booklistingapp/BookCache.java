@@ -0,0 +1,308 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link BookCache} keeps the results of the recent searches, so a repeated search can be
+ * served without going to the network. The parsed books are held as {@link BookTable}s in an
+ * in-memory LRU cache, which is backed by a store of compact binary files in the app's cache
+ * directory, written with the {@link BookCodec}.
+ *
+ * Every entry remembers the ETag of the response it was created from, so an expired entry can be
+ * revalidated with a conditional request instead of downloading the results again.
+ */
+
+public final class BookCache {
+
+    private static final String LOG_TAG = BookCache.class.getSimpleName();
+
+    /** How long the results are considered fresh if the server doesn't say otherwise */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** Maximum number of books held in memory, over all the cached searches */
+    private static final int MEMORY_CACHE_BOOK_COUNT = 500;
+
+    /** Maximum number of searches stored on the disk */
+    private static final int DISK_CACHE_ENTRY_COUNT = 100;
+
+    /** Name of the directory inside the app's cache directory holding the cache files */
+    private static final String DISK_CACHE_DIR = "books";
+
+    /** Version of the cache file format, files written in another format are ignored */
+    private static final int FILE_FORMAT_VERSION = 3;
+
+    private static BookCache sInstance;
+
+    private final LruCache<String, Entry> mMemoryCache;
+
+    private final File mDiskCacheDir;
+
+    /**
+     * Returns the {@link BookCache} shared by the whole app.
+     */
+    public static synchronized BookCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookCache(new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIR));
+        }
+        return sInstance;
+    }
+
+    private BookCache(File diskCacheDir) {
+        mDiskCacheDir = diskCacheDir;
+        mMemoryCache = new LruCache<String, Entry>(MEMORY_CACHE_BOOK_COUNT) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                // Empty results still take up a slot
+                return Math.max(1, entry.books.size());
+            }
+        };
+    }
+
+    /**
+     * Returns the cached results of the given query url, or null if they are not cached.
+     * The returned entry can be expired, see {@link Entry#isFresh()}.
+     */
+    public Entry get(String url) {
+        String key = normalizeKey(url);
+        Entry entry = mMemoryCache.get(key);
+        if (entry == null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                mMemoryCache.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the cached results of the given query url if they are held in memory, without
+     * reading the disk, or null otherwise. The returned entry can be expired.
+     */
+    public Entry peek(String url) {
+        return mMemoryCache.get(normalizeKey(url));
+    }
+
+    /**
+     * Store the results of the given query url in both the memory and the disk cache.
+     *
+     * @param etag of the response the books were parsed from, can be null
+     * @param ttlMillis for how long the results are considered fresh
+     */
+    public void put(String url, List<Book> books, String etag, long ttlMillis) {
+        String key = normalizeKey(url);
+        Entry entry = new Entry(BookTable.of(books), etag, System.currentTimeMillis() + ttlMillis);
+        mMemoryCache.put(key, entry);
+        writeToDisk(key, entry);
+    }
+
+    /**
+     * Mark the given entry fresh again after the server confirmed that it is still valid,
+     * and return the refreshed entry.
+     */
+    public Entry refresh(String url, Entry entry, long ttlMillis) {
+        put(url, entry.books, entry.etag, ttlMillis);
+        return mMemoryCache.get(normalizeKey(url));
+    }
+
+    /**
+     * Returns the cache key of a query url. Searches that differ only in the case of the letters
+     * or in the whitespace between the words share the same key.
+     */
+    public static String normalizeKey(String url) {
+        return url.trim().toLowerCase(Locale.US).replaceAll("(\\+|%20|\\s)+", "+");
+    }
+
+    /**
+     * Returns for how long a response can be cached, based on its Cache-Control header.
+     * Returns 0 if the response must be revalidated before every use, and -1 if it must
+     * not be stored at all.
+     */
+    public static long getTtlMillis(String cacheControl) {
+        if (cacheControl == null) {
+            return DEFAULT_TTL_MILLIS;
+        }
+        long ttlMillis = DEFAULT_TTL_MILLIS;
+        for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-store")) {
+                return -1;
+            } else if (directive.equals("no-cache")) {
+                ttlMillis = 0;
+            } else if (directive.startsWith("max-age=") && ttlMillis != 0) {
+                try {
+                    ttlMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring(8)));
+                } catch (NumberFormatException e) {
+                    Log.e(LOG_TAG, "Invalid max-age directive: " + directive, e);
+                }
+            }
+        }
+        return ttlMillis;
+    }
+
+    /**
+     * Read the entry of the given key from the disk, or return null if it's not stored there.
+     */
+    private synchronized Entry readFromDisk(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            // Two different keys might map to the same file, so the key is stored as well
+            if (in.readInt() != FILE_FORMAT_VERSION || !in.readUTF().equals(key)) {
+                return null;
+            }
+            String etag = readString(in);
+            long expiresAt = in.readLong();
+
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                return null;
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return new Entry(BookTable.of(BookCodec.decode(data)), etag, expiresAt);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cache file " + file, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write the entry of the given key to the disk, and make room for it if needed.
+     */
+    private synchronized void writeToDisk(String key, Entry entry) {
+        if (!mDiskCacheDir.exists() && !mDiskCacheDir.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create the cache directory " + mDiskCacheDir);
+            return;
+        }
+        trimDiskCache();
+
+        File file = getFile(key);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(FILE_FORMAT_VERSION);
+            out.writeUTF(key);
+            writeString(out, entry.etag);
+            out.writeLong(entry.expiresAt);
+
+            byte[] data = BookCodec.encode(entry.books);
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the cache file " + file, e);
+            closeQuietly(out);
+            out = null;
+            file.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Delete the least recently written files, so there is room for one more entry.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null || files.length < DISK_CACHE_ENTRY_COUNT) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i <= files.length - DISK_CACHE_ENTRY_COUNT; i++) {
+            files[i].delete();
+        }
+    }
+
+    /** Returns the file that stores the entry of the given key */
+    private File getFile(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest(key.getBytes(Charset.forName("UTF-8")))) {
+                name.append(String.format(Locale.US, "%02x", b));
+            }
+            return new File(mDiskCacheDir, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            return new File(mDiskCacheDir, Integer.toHexString(key.hashCode()));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem closing the cache file", e);
+            }
+        }
+    }
+
+    /**
+     * The cached results of a single search.
+     */
+    public static final class Entry {
+
+        /** The books of the search, in the order they were returned by the server */
+        public final List<Book> books;
+
+        /** The ETag of the response, or null if the server didn't send one */
+        public final String etag;
+
+        /** The time in milliseconds when the results expire */
+        public final long expiresAt;
+
+        Entry(List<Book> books, String etag, long expiresAt) {
+            this.books = books;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+
+        /** Returns true if the results can be used without revalidating them */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+    }
+}
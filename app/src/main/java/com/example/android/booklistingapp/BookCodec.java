@@ -0,0 +1,234 @@
+package com.example.android.booklistingapp;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes lists of {@link Book}s into a compact, versioned binary form and back. It is used for
+ * the books kept in the saved instance state, and for the files of the {@link BookCache}.
+ *
+ * Every distinct string is written once, into a table at the start of the data, and the books
+ * refer to it by index, so the currency codes and the authors that repeat over the list take
+ * up a byte or two per book. The numbers are written inline. Decoding walks the byte array
+ * directly, and the books it returns share the String instances of the table.
+ *
+ * The layout is: version, string count, strings (UTF-8 length and bytes), book count, and for
+ * every book the indexes of its id, cover image url, title, author, currency and url, followed
+ * by its price and rating. Counts, lengths and indexes are varints, an index of 0 stands for
+ * null. This class doesn't depend on the Android framework, so it can be benchmarked on the JVM.
+ */
+
+final class BookCodec {
+
+    /** Version of the encoding, data written with another version is rejected */
+    static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BookCodec} object.
+     */
+    private BookCodec() {
+    }
+
+    /**
+     * Returns the encoded form of the given books.
+     */
+    static byte[] encode(List<Book> books) {
+        // Collect the distinct strings, in the order they are first used
+        Map<String, Integer> indexOfString = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] refs = new int[books.size() * 6];
+        int ref = 0;
+        for (Book book : books) {
+            refs[ref++] = intern(book.getId(), indexOfString, strings);
+            refs[ref++] = intern(book.getCoverImageUrl(), indexOfString, strings);
+            refs[ref++] = intern(book.getTitle(), indexOfString, strings);
+            refs[ref++] = intern(book.getAuthor(), indexOfString, strings);
+            refs[ref++] = intern(book.getCurrency(), indexOfString, strings);
+            refs[ref++] = intern(book.getUrl(), indexOfString, strings);
+        }
+
+        Writer writer = new Writer(64 + books.size() * 64);
+        writer.writeVarint(VERSION);
+        writer.writeVarint(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(UTF_8);
+            writer.writeVarint(bytes.length);
+            writer.writeBytes(bytes);
+        }
+        writer.writeVarint(books.size());
+        ref = 0;
+        for (Book book : books) {
+            for (int field = 0; field < 6; field++) {
+                writer.writeVarint(refs[ref++]);
+            }
+            writer.writeDouble(book.getPriceAmount());
+            writer.writeDouble(book.getRating());
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Returns the books of the given encoded data.
+     *
+     * @throws IOException if the data was written with another version, or it is corrupt
+     */
+    static List<Book> decode(byte[] data) throws IOException {
+        Reader reader = new Reader(data);
+        int version = reader.readVarint();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of the encoded books: " + version);
+        }
+
+        int stringCount = reader.readCount();
+        // Index 0 stands for null
+        String[] strings = new String[stringCount + 1];
+        for (int i = 1; i <= stringCount; i++) {
+            strings[i] = reader.readString();
+        }
+
+        int bookCount = reader.readCount();
+        List<Book> books = new ArrayList<>(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            String id = reader.readRef(strings);
+            String coverImageUrl = reader.readRef(strings);
+            String title = reader.readRef(strings);
+            String author = reader.readRef(strings);
+            String currency = reader.readRef(strings);
+            String url = reader.readRef(strings);
+            double price = reader.readDouble();
+            double rating = reader.readDouble();
+            books.add(new Book(id, coverImageUrl, title, author, price, currency, rating, url));
+        }
+        return books;
+    }
+
+    /**
+     * Returns the index of the given string in the table, adding it if it's not there yet,
+     * or 0 if the string is null.
+     */
+    private static int intern(String value, Map<String, Integer> indexOfString, List<String> strings) {
+        if (value == null) {
+            return 0;
+        }
+        Integer index = indexOfString.get(value);
+        if (index == null) {
+            strings.add(value);
+            index = strings.size();
+            indexOfString.put(value, index);
+        }
+        return index;
+    }
+
+    /** A growing byte array written from the start */
+    private static final class Writer {
+
+        private byte[] mBuffer;
+        private int mPosition;
+
+        Writer(int initialCapacity) {
+            mBuffer = new byte[initialCapacity];
+        }
+
+        private void ensureCapacity(int count) {
+            if (mPosition + count > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mPosition + count));
+            }
+        }
+
+        void writeVarint(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                mBuffer[mPosition++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mPosition++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, mPosition, bytes.length);
+            mPosition += bytes.length;
+        }
+
+        void writeDouble(double value) {
+            ensureCapacity(8);
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mBuffer[mPosition++] = (byte) (bits >>> shift);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBuffer, mPosition);
+        }
+    }
+
+    /** Reads a byte array from the start, failing with an IOException past its end */
+    private static final class Reader {
+
+        private final byte[] mData;
+        private int mPosition;
+
+        Reader(byte[] data) {
+            mData = data;
+        }
+
+        private void require(int count) throws IOException {
+            if (count < 0 || mPosition + count > mData.length) {
+                throw new IOException("The encoded books are truncated");
+            }
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                require(1);
+                byte b = mData[mPosition++];
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in the encoded books");
+        }
+
+        /** Reads a count, which can't be larger than the number of bytes left */
+        int readCount() throws IOException {
+            int count = readVarint();
+            require(count);
+            return count;
+        }
+
+        String readString() throws IOException {
+            int length = readVarint();
+            require(length);
+            String value = new String(mData, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        String readRef(String[] strings) throws IOException {
+            int index = readVarint();
+            if (index < 0 || index >= strings.length) {
+                throw new IOException("Invalid string index in the encoded books: " + index);
+            }
+            return strings[index];
+        }
+
+        double readDouble() throws IOException {
+            require(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (mData[mPosition++] & 0xff);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+    }
+}
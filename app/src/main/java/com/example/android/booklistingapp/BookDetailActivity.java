@@ -0,0 +1,223 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.Html;
+import android.text.TextUtils;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+import butterknife.OnClick;
+
+/**
+ * Shows the details of a single book. The fields of the list row are passed in the intent
+ * and shown right away, the rest of the details are loaded through the {@link BookDetailsCache},
+ * which already holds them if the row stayed on the screen long enough to be prefetched.
+ */
+
+public class BookDetailActivity extends AppCompatActivity
+        implements BookDetailsCache.OnDetailsLoadedListener {
+
+    // Extras of the intent, holding the fields of the row that was clicked
+    private static final String EXTRA_VOLUME_ID = "volume_id";
+    private static final String EXTRA_TITLE = "title";
+    private static final String EXTRA_AUTHOR = "author";
+    private static final String EXTRA_COVER_IMAGE_URL = "cover_image_url";
+    private static final String EXTRA_PRICE = "price";
+    private static final String EXTRA_RATING = "rating";
+    private static final String EXTRA_URL = "url";
+
+    @BindView(R.id.detail_cover) ImageView mCover;
+    @BindView(R.id.detail_title) TextView mTitle;
+    @BindView(R.id.detail_subtitle) TextView mSubtitle;
+    @BindView(R.id.detail_author) TextView mAuthor;
+    @BindView(R.id.detail_price) TextView mPrice;
+    @BindView(R.id.detail_rating) TextView mRating;
+    @BindView(R.id.detail_rating_star) ImageView mRatingStar;
+    @BindView(R.id.detail_info) TextView mInfo;
+    @BindView(R.id.detail_loading_indicator) ProgressBar mLoadingIndicator;
+    @BindView(R.id.detail_description) TextView mDescription;
+    @BindView(R.id.detail_open_store) Button mOpenStoreButton;
+
+    /** The url of the book in the Play Store, replaced by the canonical link of the details */
+    private String mUrl;
+
+    /** Token of the load of the details, cancelled when the screen is closed */
+    private final CancellationToken mCancellationToken = new CancellationToken();
+
+    /** Whether the activity has been destroyed, e.g. to be recreated after a rotation */
+    private boolean mDestroyed;
+
+    /**
+     * Returns the intent showing the details of the given book, which must have a volume id.
+     */
+    public static Intent newIntent(Context context, Book book) {
+        return new Intent(context, BookDetailActivity.class)
+                .putExtra(EXTRA_VOLUME_ID, book.getId())
+                .putExtra(EXTRA_TITLE, book.getTitle())
+                .putExtra(EXTRA_AUTHOR, book.getAuthor())
+                .putExtra(EXTRA_COVER_IMAGE_URL, book.getCoverImageUrl())
+                .putExtra(EXTRA_PRICE, book.getDisplayPrice())
+                .putExtra(EXTRA_RATING, book.getRating())
+                .putExtra(EXTRA_URL, book.getUrl());
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_book_detail);
+        ButterKnife.bind(this);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        // Show the fields of the row while the details are loading
+        Intent intent = getIntent();
+        mUrl = intent.getStringExtra(EXTRA_URL);
+        mTitle.setText(intent.getStringExtra(EXTRA_TITLE));
+        String author = intent.getStringExtra(EXTRA_AUTHOR);
+        if (!TextUtils.isEmpty(author)) {
+            mAuthor.setText(author);
+        } else {
+            mAuthor.setText(R.string.no_author_info);
+        }
+        mPrice.setText(intent.getStringExtra(EXTRA_PRICE));
+        double rating = intent.getDoubleExtra(EXTRA_RATING, 0);
+        showRating(rating, BookFormatter.formatBookRating(rating));
+        mOpenStoreButton.setVisibility(TextUtils.isEmpty(mUrl) ? View.GONE : View.VISIBLE);
+        CoverImageLoader.getInstance(this).load(intent.getStringExtra(EXTRA_COVER_IMAGE_URL), mCover);
+
+        // The details prefetched from the list are shown on the first frame. If the activity
+        // is recreated while they are loading, the new one waits for the same request.
+        String volumeId = intent.getStringExtra(EXTRA_VOLUME_ID);
+        BookDetails details = BookDetailsCache.getInstance().peek(volumeId);
+        if (details != null) {
+            showDetails(details);
+        } else {
+            BookDetailsCache.getInstance().load(volumeId, mCancellationToken, this);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // A recreated activity keeps using the request, so it's only given up on when the
+        // screen is closed. Either way, the details are not delivered to this activity anymore.
+        if (isFinishing()) {
+            mCancellationToken.cancel();
+        }
+        mDestroyed = true;
+    }
+
+    @Override
+    public void onDetailsLoaded(BookDetails details) {
+        if (mDestroyed) {
+            return;
+        }
+        if (details != null) {
+            showDetails(details);
+        } else {
+            mLoadingIndicator.setVisibility(View.GONE);
+            mDescription.setText(R.string.no_details);
+        }
+    }
+
+    /**
+     * Open the book in the Play Store, or in a web browser.
+     */
+    @OnClick(R.id.detail_open_store)
+    void openStore() {
+        startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(mUrl)));
+    }
+
+    /**
+     * Display the loaded details, replacing the fields of the row.
+     */
+    private void showDetails(BookDetails details) {
+        mLoadingIndicator.setVisibility(View.GONE);
+
+        mTitle.setText(details.getTitle());
+        if (!TextUtils.isEmpty(details.getSubtitle())) {
+            mSubtitle.setVisibility(View.VISIBLE);
+            mSubtitle.setText(details.getSubtitle());
+        }
+        if (!TextUtils.isEmpty(details.getAuthors())) {
+            mAuthor.setText(details.getAuthors());
+        }
+        mPrice.setText(details.getDisplayPrice());
+        if (details.getRatingsCount() > 0) {
+            showRating(details.getRating(), getString(R.string.detailRating,
+                    BookFormatter.formatBookRating(details.getRating()), details.getRatingsCount()));
+        }
+
+        StringBuilder info = new StringBuilder();
+        appendLine(info, formatPublished(details));
+        if (details.getPageCount() > 0) {
+            appendLine(info, getString(R.string.detailPageCount, details.getPageCount()));
+        }
+        appendLine(info, details.getCategories());
+        if (details.getIsbn() != null) {
+            appendLine(info, getString(R.string.detailIsbn, details.getIsbn()));
+        }
+        mInfo.setVisibility(info.length() > 0 ? View.VISIBLE : View.GONE);
+        mInfo.setText(info);
+
+        if (details.getDescription() != null) {
+            mDescription.setText(fromHtml(details.getDescription()));
+        }
+
+        if (!TextUtils.isEmpty(details.getUrl())) {
+            mUrl = details.getUrl();
+            mOpenStoreButton.setVisibility(View.VISIBLE);
+        }
+
+        if (details.getCoverImageUrl() != null) {
+            CoverImageLoader.getInstance(this).loadLarge(details.getCoverImageUrl(), mCover);
+        }
+    }
+
+    private void showRating(double rating, String text) {
+        if (rating >= 1.0) {
+            mRating.setVisibility(View.VISIBLE);
+            mRating.setText(text);
+            mRatingStar.setVisibility(View.VISIBLE);
+        } else {
+            mRating.setVisibility(View.GONE);
+            mRatingStar.setVisibility(View.GONE);
+        }
+    }
+
+    /** Returns the publisher and the date of publication, whichever of them is known */
+    private String formatPublished(BookDetails details) {
+        String publisher = details.getPublisher();
+        String date = details.getPublishedDate();
+        if (!TextUtils.isEmpty(publisher) && !TextUtils.isEmpty(date)) {
+            return getString(R.string.detailPublished, publisher, date);
+        }
+        return !TextUtils.isEmpty(publisher) ? publisher : date;
+    }
+
+    private static void appendLine(StringBuilder builder, String line) {
+        if (TextUtils.isEmpty(line)) {
+            return;
+        }
+        if (builder.length() > 0) {
+            builder.append('\n');
+        }
+        builder.append(line);
+    }
+
+    /** The descriptions of the API are formatted with a few simple HTML tags */
+    @SuppressWarnings("deprecation")
+    private static CharSequence fromHtml(String html) {
+        return Html.fromHtml(html);
+    }
+}
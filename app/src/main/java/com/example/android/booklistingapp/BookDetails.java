@@ -0,0 +1,144 @@
+package com.example.android.booklistingapp;
+
+/**
+ * A {@link BookDetails} object holds everything the detail screen shows about a single volume.
+ * The details are only loaded when a book is opened, or when its row stays on the screen for
+ * a while, so the search results only carry the few fields of a {@link Book}.
+ */
+
+public class BookDetails {
+
+    /** The Google Books volume id of the book */
+    private final String mId;
+
+    private final String mTitle;
+
+    private final String mSubtitle;
+
+    /** The authors of the book, joined into a single, comma separated string */
+    private final String mAuthors;
+
+    private final String mPublisher;
+
+    private final String mPublishedDate;
+
+    /** The description of the book, which may contain HTML markup */
+    private final String mDescription;
+
+    /** Number of pages of the book, 0 if it is not known */
+    private final int mPageCount;
+
+    /** The categories of the book, joined into a single, comma separated string */
+    private final String mCategories;
+
+    /** Average rating of the book, 0 if it has no rating */
+    private final double mRating;
+
+    /** Number of ratings of the book */
+    private final int mRatingsCount;
+
+    /** The url of the largest cover image available, or null if there is none */
+    private final String mCoverImageUrl;
+
+    /** The ISBN-13 of the book, or the ISBN-10 if there is no ISBN-13, or null */
+    private final String mIsbn;
+
+    /** Price amount of the book, 0 if it is not for sale */
+    private final double mPriceAmount;
+
+    private final String mPriceCurrency;
+
+    /** The url of the book in the Play Store */
+    private final String mUrl;
+
+    public BookDetails(String id, String title, String subtitle, String authors, String publisher,
+                       String publishedDate, String description, int pageCount, String categories,
+                       double rating, int ratingsCount, String coverImageUrl, String isbn,
+                       double priceAmount, String priceCurrency, String url) {
+        mId = id;
+        mTitle = title;
+        mSubtitle = subtitle;
+        mAuthors = authors;
+        mPublisher = publisher;
+        mPublishedDate = publishedDate;
+        mDescription = description;
+        mPageCount = pageCount;
+        mCategories = categories;
+        mRating = rating;
+        mRatingsCount = ratingsCount;
+        mCoverImageUrl = coverImageUrl;
+        mIsbn = isbn;
+        mPriceAmount = priceAmount;
+        mPriceCurrency = priceCurrency;
+        mUrl = url;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getSubtitle() {
+        return mSubtitle;
+    }
+
+    public String getAuthors() {
+        return mAuthors;
+    }
+
+    public String getPublisher() {
+        return mPublisher;
+    }
+
+    public String getPublishedDate() {
+        return mPublishedDate;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    public String getCategories() {
+        return mCategories;
+    }
+
+    public double getRating() {
+        return mRating;
+    }
+
+    public int getRatingsCount() {
+        return mRatingsCount;
+    }
+
+    public String getCoverImageUrl() {
+        return mCoverImageUrl;
+    }
+
+    public String getIsbn() {
+        return mIsbn;
+    }
+
+    public double getPriceAmount() {
+        return mPriceAmount;
+    }
+
+    public String getCurrency() {
+        return mPriceCurrency;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /** Returns the price of the book formatted for display */
+    public String getDisplayPrice() {
+        return BookFormatter.formatPrice(mPriceAmount, mPriceCurrency);
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.booklistingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link BookDetailsCache} keeps the {@link BookDetails} loaded recently in memory, apart from
+ * the search results in the {@link BookCache}. The details are much larger than a row of the
+ * list, so only a few of them are kept, and they are only loaded when a book is opened, or
+ * prefetched when its row has stayed on the screen for a while.
+ *
+ * A volume is only requested once at a time: opening a book whose details are being prefetched
+ * waits for the prefetch instead of making a second request.
+ */
+
+public final class BookDetailsCache {
+
+    /** Maximum number of details kept in memory */
+    private static final int MEMORY_CACHE_SIZE = 50;
+
+    /** How often a caller waiting for a running request checks whether it has been cancelled */
+    private static final long CANCEL_POLL_MILLIS = 100;
+
+    /**
+     * Callback invoked on the main thread with the loaded details, or with null if they
+     * could not be loaded
+     */
+    public interface OnDetailsLoadedListener {
+        void onDetailsLoaded(BookDetails details);
+    }
+
+    private static BookDetailsCache sInstance;
+
+    private final LruCache<String, BookDetails> mMemoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+
+    /** Handler used to deliver the loaded details on the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The volumes that are being requested at the moment, by their id */
+    private final Map<String, PendingDetails> mPending = new HashMap<>();
+
+    /**
+     * Returns the {@link BookDetailsCache} shared by the whole app.
+     */
+    public static synchronized BookDetailsCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new BookDetailsCache();
+        }
+        return sInstance;
+    }
+
+    private BookDetailsCache() {
+    }
+
+    /**
+     * Returns the cached details of the given volume, or null if they are not in memory.
+     * Cheap enough to call on the main thread.
+     */
+    public BookDetails peek(String volumeId) {
+        return mMemoryCache.get(volumeId);
+    }
+
+    /**
+     * Returns the details of the given volume, from memory or else from the API,
+     * or null if they could not be loaded. Must not be called on the main thread.
+     *
+     * @param token can be used to give up on the request, in which case null is returned
+     */
+    public BookDetails load(String volumeId, CancellationToken token) {
+        BookDetails details = mMemoryCache.get(volumeId);
+        if (details != null) {
+            Metrics.increment(Metrics.DETAILS_HIT, 1);
+            return details;
+        }
+
+        // Wait for the request of the volume if it is already running, or start a new one
+        PendingDetails pending;
+        boolean isNewRequest = false;
+        synchronized (mPending) {
+            pending = mPending.get(volumeId);
+            if (pending == null) {
+                pending = new PendingDetails();
+                mPending.put(volumeId, pending);
+                isNewRequest = true;
+            }
+        }
+        if (!isNewRequest) {
+            return pending.await(token);
+        }
+
+        Metrics.increment(Metrics.DETAILS_MISS, 1);
+        try {
+            details = QueryUtils.fetchBookDetails(volumeId, token);
+            if (details != null) {
+                mMemoryCache.put(volumeId, details);
+            }
+        } finally {
+            synchronized (mPending) {
+                mPending.remove(volumeId);
+            }
+            pending.finish(details);
+        }
+        return details;
+    }
+
+    /**
+     * Load the details of the given volume in the background, and notify the given listener of
+     * them on the main thread, unless the given token is cancelled first.
+     */
+    public void load(final String volumeId, final CancellationToken token,
+                     final OnDetailsLoadedListener listener) {
+        PriorityExecutor.execute(PriorityExecutor.PRIORITY_SEARCH, new Runnable() {
+            @Override
+            public void run() {
+                final BookDetails details = load(volumeId, token);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!token.isCanceled()) {
+                            listener.onDetailsLoaded(details);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load the details of the given volume in the background, unless they are in memory
+     * or already being loaded, so they are shown right away when the book is opened.
+     */
+    public void prefetch(final String volumeId) {
+        if (volumeId == null || mMemoryCache.get(volumeId) != null) {
+            return;
+        }
+        synchronized (mPending) {
+            if (mPending.containsKey(volumeId)) {
+                return;
+            }
+        }
+        PriorityExecutor.execute(PriorityExecutor.PRIORITY_PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                load(volumeId, null);
+            }
+        });
+    }
+
+    /**
+     * The request of a volume, shared by every caller of {@link #load} asking for it at the same time.
+     */
+    private static final class PendingDetails {
+
+        private boolean mDone;
+
+        private BookDetails mDetails;
+
+        synchronized void finish(BookDetails details) {
+            mDetails = details;
+            mDone = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait for the request to finish and return its result,
+         * or return null if the given token is cancelled first.
+         */
+        synchronized BookDetails await(CancellationToken token) {
+            while (!mDone && (token == null || !token.isCanceled())) {
+                try {
+                    wait(CANCEL_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return mDone ? mDetails : null;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.android.booklistingapp;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * A streaming parser for the Google Books volume resource, the response of volumes/{id},
+ * which reads the {@link BookDetails} of a single book.
+ */
+
+public final class BookDetailsParser {
+
+    // Keys of the response that are read by the parser, also used to build the {@link #FIELDS}
+    private static final String KEY_ID = "id";
+    private static final String KEY_VOLUME_INFO = "volumeInfo";
+    private static final String KEY_TITLE = "title";
+    private static final String KEY_SUBTITLE = "subtitle";
+    private static final String KEY_AUTHORS = "authors";
+    private static final String KEY_PUBLISHER = "publisher";
+    private static final String KEY_PUBLISHED_DATE = "publishedDate";
+    private static final String KEY_DESCRIPTION = "description";
+    private static final String KEY_PAGE_COUNT = "pageCount";
+    private static final String KEY_CATEGORIES = "categories";
+    private static final String KEY_AVERAGE_RATING = "averageRating";
+    private static final String KEY_RATINGS_COUNT = "ratingsCount";
+    private static final String KEY_IMAGE_LINKS = "imageLinks";
+    private static final String KEY_INDUSTRY_IDENTIFIERS = "industryIdentifiers";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_IDENTIFIER = "identifier";
+    private static final String KEY_CANONICAL_VOLUME_LINK = "canonicalVolumeLink";
+    private static final String KEY_SALE_INFO = "saleInfo";
+    private static final String KEY_SALEABILITY = "saleability";
+    private static final String KEY_RETAIL_PRICE = "retailPrice";
+    private static final String KEY_AMOUNT = "amount";
+    private static final String KEY_CURRENCY_CODE = "currencyCode";
+
+    /**
+     * The sizes of the cover image in the "imageLinks" object, the largest first
+     */
+    private static final String[] IMAGE_SIZES = {"extraLarge", "large", "medium", "small", "thumbnail"};
+
+    /**
+     * The parts of the response read by the parser, in the syntax of the "fields" parameter
+     */
+    public static final String FIELDS = KEY_ID + ","
+            + KEY_VOLUME_INFO + "(" + KEY_TITLE + "," + KEY_SUBTITLE + "," + KEY_AUTHORS + ","
+            + KEY_PUBLISHER + "," + KEY_PUBLISHED_DATE + "," + KEY_DESCRIPTION + "," + KEY_PAGE_COUNT + ","
+            + KEY_CATEGORIES + "," + KEY_AVERAGE_RATING + "," + KEY_RATINGS_COUNT + "," + KEY_IMAGE_LINKS + ","
+            + KEY_INDUSTRY_IDENTIFIERS + "," + KEY_CANONICAL_VOLUME_LINK + "),"
+            + KEY_SALE_INFO + "(" + KEY_SALEABILITY + "," + KEY_RETAIL_PRICE + "(" + KEY_AMOUNT
+            + "," + KEY_CURRENCY_CODE + "))";
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BookDetailsParser} object.
+     */
+    private BookDetailsParser() {
+    }
+
+    /**
+     * Parse the volume resource read from the given {@link InputStream}, or return null if it
+     * has no title. The stream is not closed by this method.
+     */
+    public static BookDetails parse(InputStream inputStream) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        DetailFields fields = new DetailFields();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(KEY_ID) && reader.peek() == JsonToken.STRING) {
+                fields.id = reader.nextString();
+            } else if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+            } else if (name.equals(KEY_VOLUME_INFO)) {
+                readVolumeInfo(reader, fields);
+            } else if (name.equals(KEY_SALE_INFO)) {
+                readSaleInfo(reader, fields);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return fields.toDetails();
+    }
+
+    private static void readVolumeInfo(JsonReader reader, DetailFields fields) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case KEY_TITLE:
+                    fields.title = reader.nextString();
+                    break;
+                case KEY_SUBTITLE:
+                    fields.subtitle = reader.nextString();
+                    break;
+                case KEY_AUTHORS:
+                    fields.authors = readStrings(reader);
+                    break;
+                case KEY_PUBLISHER:
+                    fields.publisher = reader.nextString();
+                    break;
+                case KEY_PUBLISHED_DATE:
+                    fields.publishedDate = reader.nextString();
+                    break;
+                case KEY_DESCRIPTION:
+                    fields.description = reader.nextString();
+                    break;
+                case KEY_PAGE_COUNT:
+                    fields.pageCount = reader.nextInt();
+                    break;
+                case KEY_CATEGORIES:
+                    fields.categories = readStrings(reader);
+                    break;
+                case KEY_AVERAGE_RATING:
+                    fields.rating = reader.nextDouble();
+                    break;
+                case KEY_RATINGS_COUNT:
+                    fields.ratingsCount = reader.nextInt();
+                    break;
+                case KEY_IMAGE_LINKS:
+                    fields.coverImageUrl = readLargestImage(reader);
+                    break;
+                case KEY_INDUSTRY_IDENTIFIERS:
+                    fields.isbn = readIsbn(reader);
+                    break;
+                case KEY_CANONICAL_VOLUME_LINK:
+                    fields.url = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read an array of strings and join them into a single, comma separated string.
+     */
+    private static String readStrings(JsonReader reader) throws IOException {
+        StringBuilder strings = new StringBuilder();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.STRING) {
+                reader.skipValue();
+                continue;
+            }
+            if (strings.length() > 0) {
+                strings.append(", ");
+            }
+            strings.append(reader.nextString());
+        }
+        reader.endArray();
+
+        return strings.toString();
+    }
+
+    /**
+     * Read the "imageLinks" object and return the url of the largest image in it.
+     */
+    private static String readLargestImage(JsonReader reader) throws IOException {
+        String[] urls = new String[IMAGE_SIZES.length];
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            int size = -1;
+            for (int i = 0; i < IMAGE_SIZES.length; i++) {
+                if (IMAGE_SIZES[i].equals(name)) {
+                    size = i;
+                }
+            }
+            if (size >= 0 && reader.peek() == JsonToken.STRING) {
+                urls[size] = reader.nextString().replace("&edge=curl", "");
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        for (String url : urls) {
+            if (url != null) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the "industryIdentifiers" array and return the ISBN-13, or the ISBN-10 if there
+     * is no ISBN-13, or null if there is neither.
+     */
+    private static String readIsbn(JsonReader reader) throws IOException {
+        String isbn10 = null;
+        String isbn13 = null;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            String type = null;
+            String identifier = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(KEY_TYPE) && reader.peek() == JsonToken.STRING) {
+                    type = reader.nextString();
+                } else if (name.equals(KEY_IDENTIFIER) && reader.peek() == JsonToken.STRING) {
+                    identifier = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if ("ISBN_13".equals(type)) {
+                isbn13 = identifier;
+            } else if ("ISBN_10".equals(type)) {
+                isbn10 = identifier;
+            }
+        }
+        reader.endArray();
+
+        return isbn13 != null ? isbn13 : isbn10;
+    }
+
+    /**
+     * Read the saleability and the retail price of the book.
+     */
+    private static void readSaleInfo(JsonReader reader, DetailFields fields) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(KEY_SALEABILITY) && reader.peek() == JsonToken.STRING) {
+                fields.forSale = reader.nextString().equals("FOR_SALE");
+            } else if (name.equals(KEY_RETAIL_PRICE) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String priceName = reader.nextName();
+                    if (priceName.equals(KEY_AMOUNT) && reader.peek() == JsonToken.NUMBER) {
+                        fields.priceAmount = reader.nextDouble();
+                    } else if (priceName.equals(KEY_CURRENCY_CODE) && reader.peek() == JsonToken.STRING) {
+                        fields.currencyCode = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Holds the values of the volume while it is being read from the stream.
+     */
+    private static class DetailFields {
+        String id;
+        String title;
+        String subtitle;
+        String authors = "";
+        String publisher;
+        String publishedDate;
+        String description;
+        int pageCount;
+        String categories = "";
+        double rating;
+        int ratingsCount;
+        String coverImageUrl;
+        String isbn;
+        boolean forSale;
+        double priceAmount;
+        String currencyCode = "";
+        String url;
+
+        /** Returns the parsed {@link BookDetails}, or null if the volume has no title */
+        BookDetails toDetails() {
+            if (title == null) {
+                return null;
+            }
+            return new BookDetails(id, title, subtitle, authors, publisher, publishedDate, description,
+                    pageCount, categories, rating, ratingsCount, coverImageUrl, isbn,
+                    forSale ? priceAmount : 0, forSale ? currencyCode : "", url);
+        }
+    }
+}
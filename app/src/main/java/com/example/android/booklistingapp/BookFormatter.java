@@ -0,0 +1,109 @@
+package com.example.android.booklistingapp;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Helper methods that format the values of a {@link Book} for displaying them in the list.
+ * The formatters are created once per thread and locale, and reused for every book.
+ * The class doesn't depend on the Android framework, so it can be benchmarked on the JVM.
+ */
+
+final class BookFormatter {
+
+    /** The formatters of the calling thread, as they are not thread safe */
+    private static final ThreadLocal<Formatters> sFormatters = new ThreadLocal<Formatters>() {
+        @Override
+        protected Formatters initialValue() {
+            return new Formatters();
+        }
+    };
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BookFormatter}
+     * object. This class is only meant to hold static methods.
+     */
+    private BookFormatter() {
+    }
+
+    /**
+     * Return the formatted rating string showing 1 decimal place (i.e. "3.2")
+     * from a decimal rating value.
+     */
+    static String formatBookRating(double rating){
+        if (rating != 0.0) {
+            return sFormatters.get().getRatingFormat().format(rating);
+        } else return "No rating";
+    }
+
+    /**
+     * Return the formatted price string in the given currency, in the format of the
+     * default locale (i.e. "HUF 2,750.00").
+     */
+    static String formatPrice(double price, String currencyCode){
+        if (price != 0.0) {
+            return sFormatters.get().getPriceFormat(currencyCode).format(price);
+        } else return "No price available";
+    }
+
+    /**
+     * The formatters used by a single thread, recreated when the default locale changes.
+     */
+    private static class Formatters {
+
+        private Locale mLocale;
+
+        private NumberFormat mRatingFormat;
+
+        /** The price formatters by currency code */
+        private final Map<String, NumberFormat> mPriceFormats = new HashMap<>();
+
+        NumberFormat getRatingFormat() {
+            checkLocale();
+            if (mRatingFormat == null) {
+                mRatingFormat = NumberFormat.getNumberInstance(mLocale);
+                mRatingFormat.setMinimumFractionDigits(1);
+                mRatingFormat.setMaximumFractionDigits(1);
+            }
+            return mRatingFormat;
+        }
+
+        NumberFormat getPriceFormat(String currencyCode) {
+            checkLocale();
+            NumberFormat priceFormat = mPriceFormats.get(currencyCode);
+            if (priceFormat == null) {
+                try {
+                    Currency currency = Currency.getInstance(currencyCode);
+                    priceFormat = NumberFormat.getCurrencyInstance(mLocale);
+                    priceFormat.setCurrency(currency);
+                    if (currency.getDefaultFractionDigits() >= 0) {
+                        priceFormat.setMinimumFractionDigits(currency.getDefaultFractionDigits());
+                        priceFormat.setMaximumFractionDigits(currency.getDefaultFractionDigits());
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Not an ISO 4217 currency code, so it's simply put in front of the amount
+                    DecimalFormat decimalFormat = new DecimalFormat("#,###.##",
+                            DecimalFormatSymbols.getInstance(mLocale));
+                    decimalFormat.setPositivePrefix(currencyCode);
+                    priceFormat = decimalFormat;
+                }
+                mPriceFormats.put(currencyCode, priceFormat);
+            }
+            return priceFormat;
+        }
+
+        private void checkLocale() {
+            Locale locale = Locale.getDefault();
+            if (!locale.equals(mLocale)) {
+                mLocale = locale;
+                mRatingFormat = null;
+                mPriceFormats.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.android.booklistingapp;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link BookIndex} sorts, filters and counts the loaded books on the device, without asking
+ * the API again. The prices, the ratings and the currencies of the books are copied into
+ * primitive arrays once, and the order of the books by every sort key is computed the first time
+ * it's needed and kept as an array of positions. A {@link BookQuery} is then answered with a
+ * single pass over such an array, which takes a few milliseconds for thousands of books and
+ * doesn't create any {@link Book} objects. The books are kept in a {@link BookTable}, and the
+ * matching books are returned as a view of it.
+ *
+ * The index doesn't change once built, so it can be queried from any thread. This class doesn't
+ * depend on the Android framework, so it can be benchmarked on the JVM.
+ */
+
+public final class BookIndex {
+
+    private final BookTable mBooks;
+
+    private final double[] mPrices;
+    private final double[] mRatings;
+
+    /** Index of the currency of every book in {@link #mCurrencies}, -1 if it's not for sale */
+    private final int[] mCurrencyIds;
+    private final String[] mCurrencies;
+
+    /** Positions of the books in the order of every sort key and direction, computed on demand */
+    private final int[][] mOrders = new int[8][];
+
+    /** Collation keys of the titles, computed with the first sort by title */
+    private CollationKey[] mTitleKeys;
+
+    public BookIndex(List<Book> books) {
+        mBooks = BookTable.of(books);
+        int count = mBooks.size();
+        mPrices = new double[count];
+        mRatings = new double[count];
+        mCurrencyIds = new int[count];
+
+        Map<String, Integer> currencyIds = new HashMap<>();
+        List<String> currencies = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            mPrices[i] = mBooks.getPriceAmount(i);
+            mRatings[i] = mBooks.getRating(i);
+            String currency = mBooks.getCurrency(i);
+            if (mPrices[i] <= 0 || currency == null || currency.isEmpty()) {
+                mCurrencyIds[i] = -1;
+                continue;
+            }
+            Integer id = currencyIds.get(currency);
+            if (id == null) {
+                id = currencies.size();
+                currencies.add(currency);
+                currencyIds.put(currency, id);
+            }
+            mCurrencyIds[i] = id;
+        }
+        mCurrencies = currencies.toArray(new String[currencies.size()]);
+    }
+
+    /** Returns the number of books in the index */
+    public int size() {
+        return mBooks.size();
+    }
+
+    /**
+     * Returns the books matching the filters of the query, in the order of the query,
+     * together with the number of matching books in every currency.
+     */
+    public Result query(BookQuery query) {
+        int[] order = getOrder(query.sortBy, query.descending);
+        boolean hasCurrencyFilter = query.currency != null;
+        int currencyFilter = hasCurrencyFilter ? indexOfCurrency(query.currency) : -1;
+        boolean hasPriceRange = !Double.isNaN(query.minPrice) || !Double.isNaN(query.maxPrice);
+        double minPrice = Double.isNaN(query.minPrice) ? Double.NEGATIVE_INFINITY : query.minPrice;
+        double maxPrice = Double.isNaN(query.maxPrice) ? Double.POSITIVE_INFINITY : query.maxPrice;
+
+        int[] positions = new int[order.length];
+        int count = 0;
+        int[] currencyCounts = new int[mCurrencies.length];
+        for (int position : order) {
+            double price = mPrices[position];
+            if ((query.forSaleOnly || hasPriceRange) && price <= 0) {
+                continue;
+            }
+            if (price < minPrice || price > maxPrice) {
+                continue;
+            }
+            if (mRatings[position] < query.minRating) {
+                continue;
+            }
+            // The currencies are counted before the currency filter, so the counts
+            // show how many books every other currency would have
+            int currencyId = mCurrencyIds[position];
+            if (currencyId >= 0) {
+                currencyCounts[currencyId]++;
+            }
+            if (hasCurrencyFilter && (currencyId < 0 || currencyId != currencyFilter)) {
+                continue;
+            }
+            positions[count++] = position;
+        }
+
+        Map<String, Integer> facets = new LinkedHashMap<>();
+        for (int id = 0; id < mCurrencies.length; id++) {
+            if (currencyCounts[id] > 0) {
+                facets.put(mCurrencies[id], currencyCounts[id]);
+            }
+        }
+        return new Result(mBooks, positions, count, facets);
+    }
+
+    private int indexOfCurrency(String currency) {
+        for (int id = 0; id < mCurrencies.length; id++) {
+            if (mCurrencies[id].equals(currency)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the positions of the books sorted by the given key. The sort is stable, so the
+     * books with the same key keep the order of the API, and the books without a price or
+     * a rating come last in both directions.
+     */
+    private synchronized int[] getOrder(int sortBy, boolean descending) {
+        int slot = sortBy * 2 + (descending ? 1 : 0);
+        if (mOrders[slot] != null) {
+            return mOrders[slot];
+        }
+        int count = mBooks.size();
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        if (sortBy != BookQuery.SORT_RELEVANCE || descending) {
+            if (sortBy == BookQuery.SORT_TITLE && mTitleKeys == null) {
+                Collator collator = Collator.getInstance();
+                mTitleKeys = new CollationKey[count];
+                for (int i = 0; i < count; i++) {
+                    String title = mBooks.getTitle(i);
+                    mTitleKeys[i] = collator.getCollationKey(title == null ? "" : title);
+                }
+            }
+            mergeSort(order, new int[count], 0, count, sortBy, descending ? -1 : 1);
+        }
+        mOrders[slot] = order;
+        return order;
+    }
+
+    /** Sort the given range of positions with a stable merge sort, using the scratch array */
+    private void mergeSort(int[] order, int[] scratch, int from, int to, int sortBy, int direction) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, scratch, from, middle, sortBy, direction);
+        mergeSort(order, scratch, middle, to, sortBy, direction);
+        if (compare(order[middle - 1], order[middle], sortBy, direction) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compare(scratch[left], scratch[right], sortBy, direction) <= 0)) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+
+    private int compare(int first, int second, int sortBy, int direction) {
+        switch (sortBy) {
+            case BookQuery.SORT_RATING:
+                return compareMissingLast(mRatings[first], mRatings[second], direction);
+            case BookQuery.SORT_PRICE:
+                return compareMissingLast(mPrices[first], mPrices[second], direction);
+            case BookQuery.SORT_TITLE:
+                return direction * mTitleKeys[first].compareTo(mTitleKeys[second]);
+            default:
+                return direction * (first - second);
+        }
+    }
+
+    /** Compares two values, where 0 means that the value is missing */
+    private static int compareMissingLast(double first, double second, int direction) {
+        if (first <= 0 || second <= 0) {
+            return (first <= 0 ? 1 : 0) - (second <= 0 ? 1 : 0);
+        }
+        return direction * Double.compare(first, second);
+    }
+
+    /**
+     * The books matching a {@link BookQuery}, which are read from the index without copying them.
+     */
+    public static final class Result {
+
+        private final BookTable mBooks;
+
+        private final int[] mPositions;
+
+        private final int mCount;
+
+        private final Map<String, Integer> mCurrencyCounts;
+
+        Result(BookTable books, int[] positions, int count, Map<String, Integer> currencyCounts) {
+            mBooks = books;
+            mPositions = positions;
+            mCount = count;
+            mCurrencyCounts = Collections.unmodifiableMap(currencyCounts);
+        }
+
+        /** Returns the number of matching books */
+        public int size() {
+            return mCount;
+        }
+
+        /**
+         * Returns the number of books matching every filter but the currency, in every currency,
+         * in the order the currencies first appear in the API results
+         */
+        public Map<String, Integer> getCurrencyCounts() {
+            return mCurrencyCounts;
+        }
+
+        /** Returns the matching books */
+        public BookTable getBooks() {
+            return getPage(0, mCount);
+        }
+
+        /**
+         * Returns the given page of the matching books, which is empty past the last page.
+         * The page is a view of the books of the index.
+         */
+        public BookTable getPage(int page, int pageSize) {
+            int from = Math.min(mCount, page * pageSize);
+            int to = Math.min(mCount, from + pageSize);
+            return mBooks.select(mPositions, from, to);
+        }
+    }
+}
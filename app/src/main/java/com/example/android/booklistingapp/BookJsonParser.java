@@ -0,0 +1,300 @@
+package com.example.android.booklistingapp;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A streaming parser for the Google Books volumes response. The {@link Book} objects are read
+ * straight off the {@link InputStream}, so the response never has to be held in memory
+ * as a whole, and every field that the {@link Book} does not use is skipped.
+ */
+
+public final class BookJsonParser {
+
+    // Keys of the response that are read by the parser. They are also used to build the
+    // {@link #FIELDS} projection, so a key added here is requested from the API as well.
+    private static final String KEY_ITEMS = "items";
+    private static final String KEY_ID = "id";
+    private static final String KEY_VOLUME_INFO = "volumeInfo";
+    private static final String KEY_TITLE = "title";
+    private static final String KEY_AUTHORS = "authors";
+    private static final String KEY_CANONICAL_VOLUME_LINK = "canonicalVolumeLink";
+    private static final String KEY_AVERAGE_RATING = "averageRating";
+    private static final String KEY_IMAGE_LINKS = "imageLinks";
+    private static final String KEY_THUMBNAIL = "thumbnail";
+    private static final String KEY_SALE_INFO = "saleInfo";
+    private static final String KEY_SALEABILITY = "saleability";
+    private static final String KEY_RETAIL_PRICE = "retailPrice";
+    private static final String KEY_AMOUNT = "amount";
+    private static final String KEY_CURRENCY_CODE = "currencyCode";
+
+    /**
+     * The parts of the response read by the parser, in the syntax of the "fields" parameter
+     * of the API. Requesting only these fields leaves everything else out of the response.
+     */
+    public static final String FIELDS = KEY_ITEMS + "("
+            + KEY_ID + ","
+            + KEY_VOLUME_INFO + "(" + KEY_TITLE + "," + KEY_AUTHORS + "," + KEY_CANONICAL_VOLUME_LINK
+            + "," + KEY_AVERAGE_RATING + "," + KEY_IMAGE_LINKS + "/" + KEY_THUMBNAIL + "),"
+            + KEY_SALE_INFO + "(" + KEY_SALEABILITY + "," + KEY_RETAIL_PRICE + "(" + KEY_AMOUNT
+            + "," + KEY_CURRENCY_CODE + ")))";
+
+    /**
+     * Callback that receives every {@link Book} as soon as it has been parsed,
+     * before the rest of the response has arrived.
+     */
+    public interface OnBookParsedListener {
+        void onBookParsed(Book book);
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BookJsonParser}
+     * object. This class is only meant to hold static methods.
+     */
+    private BookJsonParser() {
+    }
+
+    /**
+     * Parse the JSON response read from the given {@link InputStream} and return the list of
+     * {@link Book} objects. Past the last result, and for a search without results, the response
+     * doesn't contain any items, and an empty list is returned, which tells the end of the results
+     * apart from a failed request. The stream is not closed by this method.
+     *
+     * @param inputStream the response body of the volumes request
+     * @param listener is notified of every parsed book, can be null
+     */
+    public static List<Book> parse(InputStream inputStream, OnBookParsedListener listener)
+            throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        List<Book> books = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            // The only key we are interested in on the root object is "items",
+            // which represents the list of books
+            if (reader.nextName().equals(KEY_ITEMS) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                books = readItems(reader, listener);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return books;
+    }
+
+    /**
+     * Read the "items" array and create a {@link Book} for each element of it.
+     */
+    private static List<Book> readItems(JsonReader reader, OnBookParsedListener listener)
+            throws IOException {
+        List<Book> books = new ArrayList<>();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Book book = readBook(reader);
+            // Items without a title or a link can't be displayed, and items for sale without
+            // a valid price can't be shown with one, so they are left out
+            if (book != null) {
+                books.add(book);
+                if (listener != null) {
+                    listener.onBookParsed(book);
+                }
+            }
+        }
+        reader.endArray();
+
+        return books;
+    }
+
+    /**
+     * Read a single element of the "items" array, which holds the id, and the "volumeInfo"
+     * and "saleInfo" objects of the book.
+     */
+    private static Book readBook(JsonReader reader) throws IOException {
+        BookFields fields = new BookFields();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(KEY_ID) && reader.peek() == JsonToken.STRING) {
+                fields.id = reader.nextString();
+            } else if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+            } else if (name.equals(KEY_VOLUME_INFO)) {
+                readVolumeInfo(reader, fields);
+            } else if (name.equals(KEY_SALE_INFO)) {
+                readSaleInfo(reader, fields);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return fields.toBook();
+    }
+
+    /**
+     * Read the title, authors, link, average rating and cover image of the book.
+     */
+    private static void readVolumeInfo(JsonReader reader, BookFields fields) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case KEY_TITLE:
+                    fields.title = reader.nextString();
+                    break;
+                case KEY_AUTHORS:
+                    fields.authors = readAuthors(reader);
+                    break;
+                case KEY_CANONICAL_VOLUME_LINK:
+                    fields.url = reader.nextString();
+                    break;
+                case KEY_AVERAGE_RATING:
+                    fields.rating = readNumber(reader);
+                    break;
+                case KEY_IMAGE_LINKS:
+                    fields.coverImageUrl = readThumbnail(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the "authors" array and join the names into a single, comma separated string.
+     */
+    private static String readAuthors(JsonReader reader) throws IOException {
+        StringBuilder authors = new StringBuilder();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (authors.length() > 0) {
+                authors.append(", ");
+            }
+            authors.append(reader.nextString());
+        }
+        reader.endArray();
+
+        return authors.toString().replace(";", "").trim();
+    }
+
+    /**
+     * Read the "imageLinks" object and return the url of the thumbnail,
+     * or null if there is no thumbnail.
+     */
+    private static String readThumbnail(JsonReader reader) throws IOException {
+        String thumbnail = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(KEY_THUMBNAIL) && reader.peek() == JsonToken.STRING) {
+                // The zoom level is picked by the CoverImageLoader when the cover is displayed
+                thumbnail = reader.nextString().replace("&edge=curl", "");
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return thumbnail;
+    }
+
+    /**
+     * Read the saleability and the retail price of the book. The price is only used if the book
+     * is for sale, but the two keys can come in any order, so both are read first.
+     */
+    private static void readSaleInfo(JsonReader reader, BookFields fields) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(KEY_SALEABILITY) && reader.peek() == JsonToken.STRING) {
+                fields.forSale = reader.nextString().equals("FOR_SALE");
+            } else if (name.equals(KEY_RETAIL_PRICE) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String priceName = reader.nextName();
+                    if (priceName.equals(KEY_AMOUNT)) {
+                        fields.priceAmount = readNumber(reader);
+                    } else if (priceName.equals(KEY_CURRENCY_CODE) && reader.peek() == JsonToken.STRING) {
+                        fields.currencyCode = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read a number, which can also be written as a string, and return it, or NaN if the value
+     * is not a finite number. Unlike {@link JsonReader#nextDouble}, the value is consumed even
+     * if it's malformed, so the reader can go on with the rest of the item and the response.
+     */
+    private static double readNumber(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+            reader.skipValue();
+            return Double.NaN;
+        }
+        try {
+            double number = Double.parseDouble(reader.nextString());
+            return Double.isInfinite(number) ? Double.NaN : number;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Holds the values of a single item while it is being read from the stream.
+     */
+    private static class BookFields {
+        String id;
+        String title;
+        String authors = "";
+        String url;
+        double rating;
+        String coverImageUrl;
+        boolean forSale;
+        double priceAmount;
+        String currencyCode = "";
+
+        /**
+         * Returns the parsed {@link Book}, or null if a mandatory field is missing, or the book
+         * is for sale and its price is malformed. A malformed rating is left out, like a missing one.
+         */
+        Book toBook() {
+            if (title == null || url == null) {
+                return null;
+            }
+            if (Double.isNaN(rating)) {
+                rating = 0;
+            }
+            if (!forSale) {
+                priceAmount = 0;
+                currencyCode = "";
+            } else if (Double.isNaN(priceAmount)) {
+                return null;
+            }
+            return new Book(id, coverImageUrl, title, authors, priceAmount, currencyCode, rating, url);
+        }
+    }
+}
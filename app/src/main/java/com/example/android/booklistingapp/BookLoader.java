@@ -1,47 +0,0 @@
-package com.example.android.booklistingapp;
-
-import android.content.AsyncTaskLoader;
-import android.content.Context;
-
-import java.util.List;
-
-/**
- * Created by Narancs on 9/17/2017.
- */
-
-public class BookLoader extends AsyncTaskLoader<List<Book>> {
-
-    private String mUrl;
-
-    /**
-     * Constructs a new {@link BookLoader}.
-     *
-     * @param context of the activity
-     * @param url to load data from
-     */
-    public BookLoader(Context context, String url){
-        super(context);
-        mUrl = url;
-    }
-
-    @Override
-    protected void onStartLoading(){
-        forceLoad();
-    }
-
-    /**
-     * This is on a background thread.
-     */
-
-    @Override
-    public List<Book> loadInBackground() {
-
-        // Don't perform the request if there are no URLs, or the first URL is null.
-        if (mUrl == null) {
-            return null;
-        }
-
-        List<Book> result = QueryUtils.fetchBookData(mUrl);
-        return result;
-    }
-}
@@ -0,0 +1,174 @@
+package com.example.android.booklistingapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link BookPager} keeps track of the pages of a search that are loaded with the startIndex
+ * parameter of the volumes request. Only a window of {@link #MAX_RESIDENT_PAGES} consecutive pages
+ * is kept in memory: when the user scrolls further, the pages at the other end of the window are
+ * dropped, and they are loaded again if the user scrolls back to them.
+ *
+ * The same volume is sometimes returned on more than one page, so every volume is only kept
+ * on the first page it was seen on. The pages are kept as {@link BookTable}s, which take up
+ * a fraction of the memory of the parsed {@link Book} objects.
+ *
+ * The page size is picked when the first page is loaded, by the {@link FetchPolicy} of the
+ * network at that time, and kept for the rest of the search, since the pages are requested
+ * by their start index.
+ */
+
+public class BookPager {
+
+    /** Number of books requested on a single page by default, the API returns at most 40 */
+    public static final int PAGE_SIZE = 35;
+
+    /** Maximum number of pages kept in memory */
+    public static final int MAX_RESIDENT_PAGES = 4;
+
+    /** The query url without the paging parameters */
+    private final String mBaseUrl;
+
+    /** Number of books requested on a single page of this search */
+    private int mPageSize = PAGE_SIZE;
+
+    /** The pages in memory, in order */
+    private final LinkedList<BookTable> mPages = new LinkedList<>();
+
+    /** The index of the first page in memory */
+    private int mFirstPage;
+
+    /** Whether the page after the last page in memory is known to be empty */
+    private boolean mLastPageReached;
+
+    /** The index of the page every volume id was first seen on */
+    private final Map<String, Integer> mPageOfVolume = new HashMap<>();
+
+    /**
+     * Constructs a new {@link BookPager}.
+     *
+     * @param baseUrl the query url without the startIndex and maxResults parameters
+     */
+    public BookPager(String baseUrl) {
+        mBaseUrl = baseUrl;
+    }
+
+    /** Returns the url of the page with the given index */
+    public synchronized String getPageUrl(int page) {
+        return getPageUrl(mBaseUrl, page, mPageSize);
+    }
+
+    /** Returns the url of the page with the given index and size of the given query url */
+    public static String getPageUrl(String baseUrl, int page, int pageSize) {
+        return baseUrl + "&startIndex=" + (page * pageSize) + "&maxResults=" + pageSize;
+    }
+
+    /** Returns the number of books requested on a single page */
+    public synchronized int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Change the number of books requested on a single page. This is ignored once a page
+     * has been loaded, so the start indexes of the pages stay consistent.
+     */
+    public synchronized void setPageSize(int pageSize) {
+        if (mPages.isEmpty() && !mLastPageReached) {
+            mPageSize = pageSize;
+        }
+    }
+
+    /** Returns the index of the page following the pages in memory, or -1 if there is none */
+    public synchronized int getNextPage() {
+        return mLastPageReached ? -1 : mFirstPage + mPages.size();
+    }
+
+    /** Returns the index of the page preceding the pages in memory, or -1 if there is none */
+    public synchronized int getPreviousPage() {
+        return mFirstPage - 1;
+    }
+
+    /** Returns true if no page has been loaded yet */
+    public synchronized boolean isEmpty() {
+        return mPages.isEmpty();
+    }
+
+    /**
+     * Add a loaded page to the pages in memory, and drop a page from the other end of the window
+     * if there are too many of them. Pages that are not adjacent to the window are ignored.
+     *
+     * @param page the index of the loaded page
+     * @param books the books of the page, or null if the page could not be loaded, which is
+     *              ignored, so the page can be loaded again later
+     */
+    public synchronized void addPage(int page, List<Book> books) {
+        if (books == null) {
+            return;
+        }
+        if (page == getNextPage()) {
+            // An empty page means that there are no more results
+            if (books.isEmpty()) {
+                mLastPageReached = true;
+                return;
+            }
+            mPages.addLast(BookTable.of(removeDuplicates(page, books)));
+            if (mPages.size() > MAX_RESIDENT_PAGES) {
+                mPages.removeFirst();
+                mFirstPage++;
+            }
+        } else if (page == getPreviousPage()) {
+            mPages.addFirst(BookTable.of(removeDuplicates(page, books)));
+            mFirstPage--;
+            if (mPages.size() > MAX_RESIDENT_PAGES) {
+                mPages.removeLast();
+                mLastPageReached = false;
+            }
+        }
+    }
+
+    /** Returns the books of all the pages in memory, in order */
+    public synchronized BookTable getResidentBooks() {
+        int count = 0;
+        for (BookTable page : mPages) {
+            count += page.size();
+        }
+        BookTable.Builder books = new BookTable.Builder(count);
+        for (BookTable page : mPages) {
+            books.addAll(page);
+        }
+        return books.build();
+    }
+
+    /**
+     * Returns the books of the given page that were not seen on any earlier page.
+     */
+    private List<Book> removeDuplicates(int page, List<Book> books) {
+        List<Book> uniqueBooks = new ArrayList<>(books.size());
+        Set<String> pageIds = new HashSet<>();
+        for (Book book : books) {
+            String id = book.getId();
+            if (id == null) {
+                uniqueBooks.add(book);
+                continue;
+            }
+            if (!pageIds.add(id)) {
+                // Repeated on the same page
+                continue;
+            }
+            Integer firstPage = mPageOfVolume.get(id);
+            if (firstPage == null || firstPage > page) {
+                mPageOfVolume.put(id, page);
+                uniqueBooks.add(book);
+            } else if (firstPage == page) {
+                // The page is loaded again after it was dropped from memory
+                uniqueBooks.add(book);
+            }
+        }
+        return uniqueBooks;
+    }
+}
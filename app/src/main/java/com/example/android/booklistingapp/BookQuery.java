@@ -0,0 +1,101 @@
+package com.example.android.booklistingapp;
+
+/**
+ * A {@link BookQuery} describes how the loaded books are sorted and filtered on the device,
+ * see {@link BookIndex}. A new query shows every book in the order of the API.
+ */
+
+public final class BookQuery {
+
+    /** Show the books in the order they were returned by the API */
+    public static final int SORT_RELEVANCE = 0;
+    public static final int SORT_RATING = 1;
+    public static final int SORT_PRICE = 2;
+    public static final int SORT_TITLE = 3;
+
+    int sortBy = SORT_RELEVANCE;
+
+    boolean descending;
+
+    boolean forSaleOnly;
+
+    /** The lowest rating shown, 0 to show the books without a rating as well */
+    double minRating;
+
+    /** The range of the prices shown, NaN for no limit */
+    double minPrice = Double.NaN;
+    double maxPrice = Double.NaN;
+
+    /** The only currency shown, or null to show every currency */
+    String currency;
+
+    public BookQuery() {
+    }
+
+    /** Returns a copy of the given query */
+    public BookQuery(BookQuery query) {
+        sortBy = query.sortBy;
+        descending = query.descending;
+        forSaleOnly = query.forSaleOnly;
+        minRating = query.minRating;
+        minPrice = query.minPrice;
+        maxPrice = query.maxPrice;
+        currency = query.currency;
+    }
+
+    /**
+     * Sort the books by one of the SORT_ constants, in ascending or descending order
+     */
+    public BookQuery setSort(int sortBy, boolean descending) {
+        this.sortBy = sortBy;
+        this.descending = descending;
+        return this;
+    }
+
+    public int getSortBy() {
+        return sortBy;
+    }
+
+    /** Only show the books that are for sale */
+    public BookQuery setForSaleOnly(boolean forSaleOnly) {
+        this.forSaleOnly = forSaleOnly;
+        return this;
+    }
+
+    public boolean isForSaleOnly() {
+        return forSaleOnly;
+    }
+
+    /** Only show the books rated at least the given rating, 0 for no limit */
+    public BookQuery setMinRating(double minRating) {
+        this.minRating = minRating;
+        return this;
+    }
+
+    public double getMinRating() {
+        return minRating;
+    }
+
+    /** Only show the books with a price in the given range, NaN for no limit */
+    public BookQuery setPriceRange(double minPrice, double maxPrice) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        return this;
+    }
+
+    /** Only show the books priced in the given currency, null for every currency */
+    public BookQuery setCurrency(String currency) {
+        this.currency = currency;
+        return this;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    /** Returns true if the query shows every book in the order of the API */
+    public boolean isDefault() {
+        return sortBy == SORT_RELEVANCE && !descending && !forSaleOnly && minRating <= 0
+                && Double.isNaN(minPrice) && Double.isNaN(maxPrice) && currency == null;
+    }
+}
@@ -0,0 +1,490 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link BookRepository} runs the search of the app and keeps its results. It lives as long
+ * as the process, so an activity that is recreated, e.g. after a rotation, finds the search it
+ * started still running or already loaded, and doesn't request it again.
+ *
+ * The pages of the search are loaded one at a time. Their requests run on the shared
+ * {@link PriorityExecutor}, ahead of the covers and the prefetches, and starting another search
+ * cancels every request of the previous one, down to the HTTP calls reading the responses.
+ * A query that is a list of ISBNs is looked up as a whole with an {@link IsbnLookup} instead,
+ * and its books are loaded as a single page.
+ * All the methods must be called on the main thread, and the listeners are notified on it.
+ */
+
+public final class BookRepository {
+
+    private static final String LOG_TAG = BookRepository.class.getSimpleName();
+
+    /**
+     * Callback invoked with the books of the current search every time more of them are loaded
+     */
+    public interface Listener {
+        /**
+         * Called with the books loaded so far, or null if the search failed before any books
+         * were found.
+         */
+        void onBooksLoaded(List<Book> books);
+    }
+
+    /**
+     * Number of parsed books after which the books loaded so far are delivered to the UI,
+     * before the rest of the response has arrived.
+     */
+    private static final int BATCH_SIZE = 5;
+
+    /**
+     * Runs the loads of the pages. A load mostly waits for the requests it runs on the
+     * {@link PriorityExecutor}, so it gets a thread of its own, and it must not take up a thread
+     * of the shared pool while waiting for tasks queued on that pool.
+     */
+    private static final ThreadPoolExecutor sLoadExecutor = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+
+    private static BookRepository sInstance;
+
+    private final Context mContext;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    /** The current search, or null if there is nothing to search for */
+    private Search mSearch;
+
+    /** The books delivered last, which are delivered again to every new listener */
+    private List<Book> mBooks;
+
+    /** Whether the books have been delivered for the current search */
+    private boolean mHasResult;
+
+    /**
+     * Returns the {@link BookRepository} shared by the whole app.
+     */
+    public static synchronized BookRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private BookRepository(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Notify the given listener of the books of the current search, right away
+     * if they have been delivered already.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+        if (mHasResult) {
+            listener.onBooksLoaded(mBooks);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Search for the given query, replacing the current search. Nothing is done if the same
+     * search is running or loaded already, e.g. because the activity was recreated, or if there
+     * is nothing to search for, so the books the listeners restored on their own are kept.
+     *
+     * @param query the search query
+     * @param url to load data from, without the paging parameters, or null if there is
+     *            nothing to search for
+     * @param federated whether the first page is searched for with every variant of the query,
+     *                  see {@link FederatedSearch}
+     */
+    public void search(String query, String url, boolean federated) {
+        if (url == null || (mSearch != null && mSearch.matches(url, federated))) {
+            return;
+        }
+        cancel();
+        mSearch = new Search(query, url, federated);
+        mSearch.load(0);
+    }
+
+    /**
+     * Load the page of the current search again if its last load failed, e.g. because the
+     * device was offline. Nothing is done while a page is loading, or if the last load
+     * succeeded, even if it found no books.
+     */
+    public void retry() {
+        Search search = mSearch;
+        if (search != null && search.mFailedPage >= 0) {
+            search.load(search.mFailedPage);
+        }
+    }
+
+    /**
+     * Give up on the current search, and forget its books.
+     */
+    public void cancel() {
+        if (mSearch != null) {
+            mSearch.cancel();
+            mSearch = null;
+        }
+        mBooks = null;
+        mHasResult = false;
+    }
+
+    /**
+     * Start loading the page after the pages in memory. Returns false if there is no such page,
+     * or another page is being loaded at the moment.
+     */
+    public boolean loadNextPage() {
+        return mSearch != null && mSearch.load(mSearch.mPager.getNextPage());
+    }
+
+    /**
+     * Start loading the page before the pages in memory. Returns false if there is no such page,
+     * or another page is being loaded at the moment.
+     */
+    public boolean loadPreviousPage() {
+        return mSearch != null && mSearch.load(mSearch.mPager.getPreviousPage());
+    }
+
+    private void deliver(List<Book> books) {
+        mBooks = books;
+        mHasResult = true;
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onBooksLoaded(books);
+        }
+    }
+
+    /**
+     * Returns the books parsed so far, followed by the stored books that have not been
+     * parsed yet, so the rows shown from the store are only replaced as the response arrives.
+     */
+    private static List<Book> merge(List<Book> parsedBooks, List<Book> storedBooks) {
+        List<Book> books = new ArrayList<>(parsedBooks);
+        Set<String> parsedIds = new HashSet<>();
+        for (Book book : parsedBooks) {
+            parsedIds.add(book.getId() != null ? book.getId() : book.getUrl());
+        }
+        for (Book book : storedBooks) {
+            if (!parsedIds.contains(book.getId() != null ? book.getId() : book.getUrl())) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * A search for a query, and the pages of it loaded so far.
+     */
+    private final class Search {
+
+        /** The search query, used to search the books stored on the device */
+        private final String mQuery;
+
+        private final String mUrl;
+
+        /** Whether the first page is searched for with every variant of the query */
+        private final boolean mFederated;
+
+        /**
+         * The ISBNs of the query if it's a list of ISBNs, which are looked up as a whole
+         * with an {@link IsbnLookup}, or null
+         */
+        private final List<String> mIsbns;
+
+        /** The pages of the search */
+        private final BookPager mPager;
+
+        /** Token of the whole search, the token of every request is a child of it */
+        private final CancellationToken mToken = new CancellationToken();
+
+        /** Whether a page is being loaded at the moment */
+        private volatile boolean mLoading;
+
+        /** The page whose last load failed, or -1 if the last load didn't fail */
+        private volatile int mFailedPage = -1;
+
+        /** The request of the running load, while it runs on the shared pool */
+        private volatile Future<List<Book>> mFuture;
+
+        /** Start time of the running load of the first page, until its first books are delivered */
+        private volatile long mFirstResultStart;
+
+        Search(String query, String url, boolean federated) {
+            mQuery = query;
+            mUrl = url;
+            mFederated = federated;
+            mIsbns = IsbnLookup.parseIsbnList(query);
+            mPager = new BookPager(url);
+        }
+
+        boolean matches(String url, boolean federated) {
+            return mUrl.equals(url) && mFederated == federated;
+        }
+
+        /**
+         * Start loading the page with the given index. Returns false if there is no such page,
+         * or another page is being loaded at the moment.
+         */
+        boolean load(final int page) {
+            if (page < 0 || mLoading || mToken.isCanceled()) {
+                return false;
+            }
+            // The books of a lookup arrive as a single page
+            if (mIsbns != null && page > 0) {
+                return false;
+            }
+            mLoading = true;
+            sLoadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final List<Book> books = loadPage(page);
+                        if (mToken.isCanceled()) {
+                            return;
+                        }
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mSearch == Search.this) {
+                                    deliver(books);
+                                }
+                            }
+                        });
+                    } finally {
+                        mLoading = false;
+                    }
+                }
+            });
+            return true;
+        }
+
+        /**
+         * Give up on the running load, and on the requests made for it.
+         */
+        void cancel() {
+            mToken.cancel();
+            Future<List<Book>> future = mFuture;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * Load the page with the given index, and return the books of the pages in memory.
+         * This is on a background thread.
+         */
+        private List<Book> loadPage(int page) {
+            long loadStart = Metrics.start();
+            boolean isFirstPage = mPager.isEmpty();
+            mFirstResultStart = isFirstPage ? loadStart : 0;
+            BookCache cache = BookCache.getInstance(mContext);
+            BookStore store = BookStore.getInstance(mContext);
+
+            // The size of the pages is picked for the network of the first page, here rather than
+            // on the main thread, since the monitor reads the network when it starts
+            FetchPolicy policy = NetworkMonitor.getInstance(mContext).getPolicy();
+            if (isFirstPage) {
+                mPager.setPageSize(policy.pageSize);
+            }
+
+            // Collect the books of the first page as they are parsed, and hand a snapshot of them
+            // to the UI every time a new batch is complete.
+            BookJsonParser.OnBookParsedListener listener = null;
+            List<Book> storedBooks = null;
+            if (isFirstPage && mIsbns == null) {
+                // Show the matching books stored on the device before going to the network
+                storedBooks = store.search(mQuery, mPager.getPageSize());
+                for (Book book : storedBooks) {
+                    book.prepareDisplayText();
+                }
+                if (!storedBooks.isEmpty()) {
+                    deliverPartialResult(storedBooks);
+                }
+
+                final List<Book> localBooks = storedBooks;
+                final List<Book> parsedBooks = new ArrayList<>();
+                listener = new BookJsonParser.OnBookParsedListener() {
+                    @Override
+                    public void onBookParsed(Book book) {
+                        book.prepareDisplayText();
+                        parsedBooks.add(book);
+                        if (parsedBooks.size() % BATCH_SIZE == 0) {
+                            deliverPartialResult(merge(parsedBooks, localBooks));
+                        }
+                    }
+                };
+            }
+
+            // Previous searches are served by the cache, even without a connection
+            CancellationToken token = new CancellationToken();
+            mToken.addChild(token);
+            List<Book> books;
+            if (isFirstPage && mIsbns != null) {
+                // The books found are delivered every time a batch of the lookup has arrived
+                books = IsbnLookup.lookup(mIsbns, cache, new IsbnLookup.OnBatchResultListener() {
+                    @Override
+                    public void onBatchResult(List<Book> foundBooks) {
+                        deliverPartialResult(foundBooks);
+                    }
+                }, token);
+            } else if (isFirstPage && mFederated && mQuery != null) {
+                // The variants arrive as a whole, so the merged results are delivered per variant
+                final List<Book> localBooks = storedBooks;
+                books = FederatedSearch.search(mQuery, mPager.getPageSize(), cache, new FederatedSearch.OnPartialResultListener() {
+                    @Override
+                    public void onPartialResult(List<Book> mergedBooks) {
+                        for (Book book : mergedBooks) {
+                            book.prepareDisplayText();
+                        }
+                        deliverPartialResult(merge(mergedBooks, localBooks));
+                    }
+                }, token);
+            } else {
+                books = fetch(isFirstPage ? PriorityExecutor.PRIORITY_SEARCH : PriorityExecutor.PRIORITY_PAGE,
+                        mPager.getPageUrl(page), cache, listener, token);
+            }
+            if (token.isCanceled()) {
+                return null;
+            }
+            mFailedPage = books == null ? page : -1;
+
+            // Without a response, the stored books are the best answer there is. The pager is left
+            // empty, so the first page is requested again by the next load or retry.
+            if (books == null && storedBooks != null && !storedBooks.isEmpty()) {
+                recordLoadTime(loadStart, isFirstPage);
+                return BookTable.of(storedBooks);
+            }
+            store.putBooks(books);
+            SearchSuggestions.getInstance(mContext).addBooks(books);
+            mPager.addPage(page, books);
+            if (isFirstPage && books != null && mIsbns == null) {
+                NetworkMonitor.getInstance(mContext).recordSearch(policy);
+            }
+
+            // Warm up the cache with the next pages, so they're ready by the time the user needs them.
+            // How many depends on the network, on a slow one nothing is loaded ahead of time.
+            int nextPage = mPager.getNextPage();
+            if (nextPage >= 0 && mIsbns == null) {
+                for (int i = 0; i < policy.prefetchPages; i++) {
+                    prefetchPage(nextPage + i, cache);
+                }
+            }
+
+            // The display texts were formatted when the page was stored in a table,
+            // instead of on the main thread while scrolling
+            BookTable residentBooks = mPager.getResidentBooks();
+
+            recordLoadTime(loadStart, isFirstPage);
+            return residentBooks;
+        }
+
+        /**
+         * Request the given url on the shared pool with the given priority, and wait for its books.
+         * Returns null if the request failed or was cancelled.
+         */
+        private List<Book> fetch(int priority, final String url, final BookCache cache,
+                                 final BookJsonParser.OnBookParsedListener listener,
+                                 final CancellationToken token) {
+            Future<List<Book>> future = PriorityExecutor.submit(priority, new Callable<List<Book>>() {
+                @Override
+                public List<Book> call() {
+                    return QueryUtils.fetchBookData(url, cache, listener, token);
+                }
+            });
+            mFuture = future;
+            // The search may have been cancelled before the request could be cancelled with it
+            if (token.isCanceled()) {
+                future.cancel(false);
+            }
+            try {
+                return future.get();
+            } catch (CancellationException e) {
+                return null;
+            } catch (InterruptedException e) {
+                token.cancel();
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Problem loading the page " + url, e.getCause());
+                return null;
+            } finally {
+                mFuture = null;
+            }
+        }
+
+        /**
+         * Load the page with the given index into the cache in the background, unless the
+         * search is given up on first.
+         */
+        private void prefetchPage(int page, final BookCache cache) {
+            if (page < 0) {
+                return;
+            }
+            final String pageUrl = mPager.getPageUrl(page);
+            final CancellationToken token = new CancellationToken();
+            mToken.addChild(token);
+            PriorityExecutor.execute(PriorityExecutor.PRIORITY_PREFETCH, new Runnable() {
+                @Override
+                public void run() {
+                    BookStore.getInstance(mContext).putBooks(QueryUtils.fetchBookData(pageUrl, cache, null, token));
+                }
+            });
+        }
+
+        /**
+         * Record how long the first page of the search took to load, and to show its first books
+         * if they were not delivered before the end of the load.
+         */
+        private void recordLoadTime(long loadStart, boolean isFirstPage) {
+            if (!isFirstPage) {
+                return;
+            }
+            if (mFirstResultStart != 0) {
+                Metrics.recordSince(Metrics.SEARCH_FIRST_RESULT, mFirstResultStart);
+                mFirstResultStart = 0;
+            }
+            Metrics.recordSince(Metrics.SEARCH_TOTAL, loadStart);
+        }
+
+        /**
+         * Post the books parsed so far to the main thread, where they are delivered to the
+         * listeners just like a finished load. The final result of the load follows later.
+         * The books are stored in a table here, off the main thread.
+         */
+        private void deliverPartialResult(List<Book> partialBooks) {
+            final BookTable books = BookTable.of(partialBooks);
+            if (mFirstResultStart != 0) {
+                Metrics.recordSince(Metrics.SEARCH_FIRST_RESULT, mFirstResultStart);
+                mFirstResultStart = 0;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Drop the batch if the search was replaced or cancelled meanwhile
+                    if (mSearch == Search.this && !mToken.isCanceled()) {
+                        deliver(books);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.android.booklistingapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A {@link BookStore} keeps every {@link Book} the app has seen in an SQLite database, with a
+ * full-text index on the titles and the authors. Searches are answered from the store first, so
+ * there is something to show right away, even without a connection, and the results from the
+ * network are merged in once they arrive.
+ */
+
+public final class BookStore extends SQLiteOpenHelper {
+
+    private static final String LOG_TAG = BookStore.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "books.db";
+
+    private static final int DATABASE_VERSION = 1;
+
+    /** Maximum number of books kept in the store, the books seen least recently are dropped */
+    private static final int MAX_BOOK_COUNT = 5000;
+
+    /** Table of the books */
+    private static final String TABLE_BOOKS = "books";
+    private static final String COLUMN_ROW_ID = "_id";
+    private static final String COLUMN_KEY = "book_key";
+    private static final String COLUMN_VOLUME_ID = "volume_id";
+    private static final String COLUMN_COVER_IMAGE_URL = "cover_image_url";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_AUTHOR = "author";
+    private static final String COLUMN_PRICE_AMOUNT = "price_amount";
+    private static final String COLUMN_PRICE_CURRENCY = "price_currency";
+    private static final String COLUMN_RATING = "rating";
+    private static final String COLUMN_URL = "url";
+    private static final String COLUMN_SEEN_AT = "seen_at";
+
+    /**
+     * Full-text index of the titles and the authors. The docid of every row is the row id of the
+     * book in the books table. FTS3 is used because it is available on every supported version.
+     */
+    private static final String TABLE_BOOKS_FTS = "books_fts";
+
+    private static final String[] BOOK_COLUMNS = {
+            COLUMN_VOLUME_ID, COLUMN_COVER_IMAGE_URL, COLUMN_TITLE, COLUMN_AUTHOR,
+            COLUMN_PRICE_AMOUNT, COLUMN_PRICE_CURRENCY, COLUMN_RATING, COLUMN_URL};
+
+    private static BookStore sInstance;
+
+    /**
+     * Returns the {@link BookStore} shared by the whole app.
+     */
+    public static synchronized BookStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private BookStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_ROW_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_KEY + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_VOLUME_ID + " TEXT, "
+                + COLUMN_COVER_IMAGE_URL + " TEXT, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_AUTHOR + " TEXT, "
+                + COLUMN_PRICE_AMOUNT + " REAL NOT NULL, "
+                + COLUMN_PRICE_CURRENCY + " TEXT, "
+                + COLUMN_RATING + " REAL NOT NULL, "
+                + COLUMN_URL + " TEXT, "
+                + COLUMN_SEEN_AT + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX books_seen_at ON " + TABLE_BOOKS + " (" + COLUMN_SEEN_AT + ")");
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts3("
+                + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The store only holds copies of books from the network, so it is simply rebuilt
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS_FTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS);
+        onCreate(db);
+    }
+
+    /**
+     * Add the given books to the store, or update them if they are already in it.
+     * Must not be called on the main thread.
+     */
+    public void putBooks(List<Book> books) {
+        if (books == null || books.isEmpty()) {
+            return;
+        }
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            long now = System.currentTimeMillis();
+            db.beginTransaction();
+            try {
+                for (Book book : books) {
+                    putBook(db, book, now);
+                }
+                trim(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem storing the books.", e);
+        }
+    }
+
+    private static void putBook(SQLiteDatabase db, Book book, long now) {
+        String key = book.getId() != null ? book.getId() : book.getUrl();
+
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_KEY, key);
+        values.put(COLUMN_VOLUME_ID, book.getId());
+        values.put(COLUMN_COVER_IMAGE_URL, book.getCoverImageUrl());
+        values.put(COLUMN_TITLE, book.getTitle());
+        values.put(COLUMN_AUTHOR, book.getAuthor());
+        values.put(COLUMN_PRICE_AMOUNT, book.getPriceAmount());
+        values.put(COLUMN_PRICE_CURRENCY, book.getCurrency());
+        values.put(COLUMN_RATING, book.getRating());
+        values.put(COLUMN_URL, book.getUrl());
+        values.put(COLUMN_SEEN_AT, now);
+
+        // Keep the row id of a book that is already stored, since the index refers to it
+        long rowId;
+        if (db.update(TABLE_BOOKS, values, COLUMN_KEY + " = ?", new String[]{key}) > 0) {
+            rowId = queryRowId(db, key);
+        } else {
+            rowId = db.insert(TABLE_BOOKS, null, values);
+        }
+        if (rowId < 0) {
+            return;
+        }
+
+        // FTS3 tables before SQLite 3.7.7 don't support INSERT OR REPLACE, so the row of the
+        // index is deleted and inserted again
+        db.delete(TABLE_BOOKS_FTS, "docid = ?", new String[]{String.valueOf(rowId)});
+        ContentValues ftsValues = new ContentValues();
+        ftsValues.put("docid", rowId);
+        ftsValues.put(COLUMN_TITLE, book.getTitle());
+        ftsValues.put(COLUMN_AUTHOR, book.getAuthor());
+        db.insert(TABLE_BOOKS_FTS, null, ftsValues);
+    }
+
+    private static long queryRowId(SQLiteDatabase db, String key) {
+        Cursor cursor = db.query(TABLE_BOOKS, new String[]{COLUMN_ROW_ID},
+                COLUMN_KEY + " = ?", new String[]{key}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Drop the books seen least recently if there are more books in the store than allowed.
+     */
+    private static void trim(SQLiteDatabase db) {
+        String staleRows = "SELECT " + COLUMN_ROW_ID + " FROM " + TABLE_BOOKS
+                + " ORDER BY " + COLUMN_SEEN_AT + " DESC LIMIT -1 OFFSET " + MAX_BOOK_COUNT;
+        db.execSQL("DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid IN (" + staleRows + ")");
+        db.execSQL("DELETE FROM " + TABLE_BOOKS + " WHERE " + COLUMN_ROW_ID + " IN (" + staleRows + ")");
+    }
+
+    /**
+     * Returns the stored books whose title or author contain every word of the query, the best
+     * rated books first. Returns an empty list if nothing matches.
+     * Must not be called on the main thread.
+     *
+     * @param query the search query, as entered by the user
+     * @param limit the maximum number of books returned
+     */
+    public List<Book> search(String query, int limit) {
+        List<Book> books = new ArrayList<>();
+        String match = buildMatchExpression(query);
+        if (match == null) {
+            return books;
+        }
+
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = getReadableDatabase();
+            StringBuilder columns = new StringBuilder();
+            for (String column : BOOK_COLUMNS) {
+                if (columns.length() > 0) {
+                    columns.append(", ");
+                }
+                columns.append("b.").append(column);
+            }
+            cursor = db.rawQuery("SELECT " + columns + " FROM " + TABLE_BOOKS + " b"
+                    + " JOIN " + TABLE_BOOKS_FTS + " f ON f.docid = b." + COLUMN_ROW_ID
+                    + " WHERE " + TABLE_BOOKS_FTS + " MATCH ?"
+                    + " ORDER BY b." + COLUMN_RATING + " DESC, b." + COLUMN_SEEN_AT + " DESC"
+                    + " LIMIT " + limit, new String[]{match});
+            while (cursor.moveToNext()) {
+                books.add(new Book(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getDouble(4), cursor.getString(5),
+                        cursor.getDouble(6), cursor.getString(7)));
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem searching the stored books.", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Returns the full-text query matching every word of the search query as a prefix,
+     * or null if the query has no words. Everything but letters and digits is dropped,
+     * so the query can't use the operators of the full-text query syntax.
+     */
+    static String buildMatchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : query.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(word).append('*');
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+}
@@ -0,0 +1,431 @@
+package com.example.android.booklistingapp;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link BookTable} is an immutable list of books stored by column instead of as {@link Book}
+ * objects, so the long result sets of a paginated search take up a fraction of the memory:
+ *
+ * - The prices and the ratings are kept in primitive arrays.
+ * - The authors, the currencies and the display texts of the prices and the ratings repeat over
+ *   the list, so every distinct value is kept once, and the rows refer to it by index.
+ * - The titles are kept as UTF-8 bytes in a single array.
+ * - The urls of the covers and the books are split around the volume id they contain, e.g.
+ *   {@code http://books.google.com/books/content?id=} and {@code &printsec=frontcover&img=1...},
+ *   and the parts before and after it are shared by the rows like the authors.
+ *
+ * The {@link BookAdapter} reads the columns of a row directly with the getters taking a position.
+ * The title and the cover url of a row are decoded the first time they are read, and kept, so
+ * binding the row again doesn't allocate. Only the rows that are shown pay for that.
+ * {@link #get} still returns a {@link Book}, created on every call, for the code that needs one.
+ * A table can also be a view of some rows of another table, in another order, which shares
+ * the columns of the other table, see {@link #select}.
+ *
+ * This class doesn't depend on the Android framework, so it can be benchmarked on the JVM.
+ */
+
+public final class BookTable extends AbstractList<Book> {
+
+    /** The table without any books */
+    public static final BookTable EMPTY = new Builder(0).build();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Columns mColumns;
+
+    /** The rows of the columns in the order of the table, or null for all of them in order */
+    private final int[] mRows;
+
+    private final int mSize;
+
+    private BookTable(Columns columns, int[] rows, int size) {
+        mColumns = columns;
+        mRows = rows;
+        mSize = size;
+    }
+
+    /**
+     * Returns the given books as a table, the same list if it is a table already.
+     */
+    public static BookTable of(List<Book> books) {
+        if (books instanceof BookTable) {
+            return (BookTable) books;
+        }
+        return new Builder(books.size()).addAll(books).build();
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns a new {@link Book} with the values of the given position. Prefer the getters
+     * of the single columns where the whole book isn't needed, e.g. while binding the rows.
+     */
+    @Override
+    public Book get(int index) {
+        int row = row(index);
+        return new Book(mColumns.ids[row], mColumns.decodeCoverUrl(row), mColumns.decodeTitle(row), getAuthor(index),
+                mColumns.prices[row], getCurrency(index), mColumns.ratings[row], getUrl(index));
+    }
+
+    /** Returns the Google Books volume id of the book at the given position, or null */
+    public String getId(int index) {
+        return mColumns.ids[row(index)];
+    }
+
+    /** Returns the title of the book at the given position, decoded once and then kept */
+    public String getTitle(int index) {
+        int row = row(index);
+        String title = mColumns.titles[row];
+        if (title == null) {
+            title = mColumns.decodeTitle(row);
+            mColumns.titles[row] = title;
+        }
+        return title;
+    }
+
+    public String getAuthor(int index) {
+        return mColumns.strings[mColumns.authorIds[row(index)]];
+    }
+
+    public double getPriceAmount(int index) {
+        return mColumns.prices[row(index)];
+    }
+
+    public String getCurrency(int index) {
+        return mColumns.strings[mColumns.currencyIds[row(index)]];
+    }
+
+    public double getRating(int index) {
+        return mColumns.ratings[row(index)];
+    }
+
+    /** Returns the url of the cover of the book at the given position, decoded once and then kept */
+    public String getCoverImageUrl(int index) {
+        int row = row(index);
+        String coverUrl = mColumns.coverUrls[row];
+        if (coverUrl == null) {
+            coverUrl = mColumns.decodeCoverUrl(row);
+            mColumns.coverUrls[row] = coverUrl;
+        }
+        return coverUrl;
+    }
+
+    public String getUrl(int index) {
+        int row = row(index);
+        return mColumns.decodeUrl(mColumns.urlHeads[row], mColumns.urlTails[row], mColumns.ids[row]);
+    }
+
+    /** Returns the price of the book at the given position, formatted for display */
+    public String getDisplayPrice(int index) {
+        return mColumns.strings[mColumns.displayPriceIds[row(index)]];
+    }
+
+    /** Returns the rating of the book at the given position, formatted for display */
+    public String getDisplayRating(int index) {
+        return mColumns.strings[mColumns.displayRatingIds[row(index)]];
+    }
+
+    /**
+     * Returns true if everything displayed of the book at the given position is the same as
+     * of the book at the given position of the other table, without decoding the columns
+     * when both tables share them. The decoded texts are not kept, the rows may never be shown.
+     */
+    public boolean contentEquals(int index, BookTable other, int otherIndex) {
+        Columns columns = mColumns;
+        Columns otherColumns = other.mColumns;
+        int row = row(index);
+        int otherRow = other.row(otherIndex);
+        if (columns == otherColumns && row == otherRow) {
+            return true;
+        }
+        return columns.prices[row] == otherColumns.prices[otherRow]
+                && columns.ratings[row] == otherColumns.ratings[otherRow]
+                && textEquals(getAuthor(index), other.getAuthor(otherIndex))
+                && textEquals(getCurrency(index), other.getCurrency(otherIndex))
+                && textEquals(columns.decodeTitle(row), otherColumns.decodeTitle(otherRow))
+                && textEquals(columns.decodeCoverUrl(row), otherColumns.decodeCoverUrl(otherRow));
+    }
+
+    /**
+     * Returns a table of the rows at the given positions of this table, from the given start
+     * to the given end, which shares the columns of this table.
+     */
+    public BookTable select(int[] positions, int from, int to) {
+        int[] rows = new int[to - from];
+        for (int i = from; i < to; i++) {
+            rows[i - from] = row(positions[i]);
+        }
+        return new BookTable(mColumns, rows, rows.length);
+    }
+
+    private int row(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+        return mRows == null ? index : mRows[index];
+    }
+
+    private static boolean textEquals(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * The columns of the books, which are shared by a table and its views.
+     */
+    private static final class Columns {
+
+        String[] ids;
+
+        double[] prices;
+        double[] ratings;
+
+        /** The titles in UTF-8, and the start and length of every title, -1 for null */
+        byte[] titleBytes;
+        int[] titleStarts;
+        int[] titleLengths;
+
+        /**
+         * The distinct authors, currencies, display texts and url parts, referred to by index.
+         * Index 0 stands for null.
+         */
+        String[] strings;
+
+        int[] authorIds;
+        int[] currencyIds;
+        int[] displayPriceIds;
+        int[] displayRatingIds;
+
+        /**
+         * The part of every url before the volume id, and the part after it, shifted left by one,
+         * with the lowest bit set if the volume id is between them
+         */
+        int[] coverHeads;
+        int[] coverTails;
+        int[] urlHeads;
+        int[] urlTails;
+
+        /**
+         * The titles and the cover urls decoded so far, null until a row is read by its getter.
+         * A row decoded twice by two threads at the same time just gets the same text twice.
+         */
+        String[] titles;
+        String[] coverUrls;
+
+        String decodeTitle(int row) {
+            int length = titleLengths[row];
+            if (length < 0) {
+                return null;
+            }
+            return new String(titleBytes, titleStarts[row], length, UTF_8);
+        }
+
+        String decodeCoverUrl(int row) {
+            return decodeUrl(coverHeads[row], coverTails[row], ids[row]);
+        }
+
+        String decodeUrl(int head, int tail, String id) {
+            if (head == 0) {
+                return null;
+            }
+            String headText = strings[head];
+            String tailText = strings[tail >>> 1];
+            if ((tail & 1) == 0) {
+                return headText + tailText;
+            }
+            return new StringBuilder(headText.length() + id.length() + tailText.length())
+                    .append(headText).append(id).append(tailText).toString();
+        }
+    }
+
+    /**
+     * Builds a {@link BookTable}, one book after another.
+     */
+    public static final class Builder {
+
+        private final Map<String, Integer> mIndexOfString = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+
+        private int mSize;
+
+        private String[] mIds;
+        private double[] mPrices;
+        private double[] mRatings;
+        private byte[] mTitleBytes;
+        private int mTitleByteCount;
+        private int[] mTitleStarts;
+        private int[] mTitleLengths;
+        private int[] mAuthorIds;
+        private int[] mCurrencyIds;
+        private int[] mDisplayPriceIds;
+        private int[] mDisplayRatingIds;
+        private int[] mCoverHeads;
+        private int[] mCoverTails;
+        private int[] mUrlHeads;
+        private int[] mUrlTails;
+
+        public Builder(int capacity) {
+            // Index 0 stands for null
+            mStrings.add(null);
+            allocate(Math.max(capacity, 1));
+            mTitleBytes = new byte[Math.max(capacity, 1) * 32];
+        }
+
+        /** Add the given book at the end of the table */
+        public Builder add(Book book) {
+            return add(book.getId(), book.getCoverImageUrl(), book.getTitle(), book.getAuthor(),
+                    book.getPriceAmount(), book.getCurrency(), book.getRating(), book.getUrl(),
+                    book.getDisplayPrice(), book.getDisplayRating());
+        }
+
+        /**
+         * Add the given books at the end of the table. The books of a table are copied
+         * column by column, without creating {@link Book} objects.
+         */
+        public Builder addAll(List<Book> books) {
+            if (books instanceof BookTable) {
+                BookTable table = (BookTable) books;
+                Columns columns = table.mColumns;
+                for (int i = 0; i < table.size(); i++) {
+                    int row = table.row(i);
+                    add(columns.ids[row], columns.decodeCoverUrl(row), columns.decodeTitle(row),
+                            table.getAuthor(i), table.getPriceAmount(i), table.getCurrency(i),
+                            table.getRating(i), table.getUrl(i), table.getDisplayPrice(i),
+                            table.getDisplayRating(i));
+                }
+            } else {
+                for (Book book : books) {
+                    add(book);
+                }
+            }
+            return this;
+        }
+
+        private Builder add(String id, String coverImageUrl, String title, String author, double price,
+                            String currency, double rating, String url, String displayPrice,
+                            String displayRating) {
+            if (mSize == mIds.length) {
+                allocate(mSize * 2);
+            }
+            int row = mSize++;
+            mIds[row] = id;
+            mPrices[row] = price;
+            mRatings[row] = rating;
+            addTitle(row, title);
+            mAuthorIds[row] = intern(author);
+            mCurrencyIds[row] = intern(currency);
+            mDisplayPriceIds[row] = intern(displayPrice);
+            mDisplayRatingIds[row] = intern(displayRating);
+            encodeUrl(coverImageUrl, id, mCoverHeads, mCoverTails, row);
+            encodeUrl(url, id, mUrlHeads, mUrlTails, row);
+            return this;
+        }
+
+        private void addTitle(int row, String title) {
+            if (title == null) {
+                mTitleStarts[row] = mTitleByteCount;
+                mTitleLengths[row] = -1;
+                return;
+            }
+            byte[] bytes = title.getBytes(UTF_8);
+            if (mTitleByteCount + bytes.length > mTitleBytes.length) {
+                mTitleBytes = Arrays.copyOf(mTitleBytes,
+                        Math.max(mTitleBytes.length * 2, mTitleByteCount + bytes.length));
+            }
+            System.arraycopy(bytes, 0, mTitleBytes, mTitleByteCount, bytes.length);
+            mTitleStarts[row] = mTitleByteCount;
+            mTitleLengths[row] = bytes.length;
+            mTitleByteCount += bytes.length;
+        }
+
+        /**
+         * Store the given url in the given row of the given head and tail columns, see
+         * {@link Columns}. The url is split around the volume id if it contains it, and otherwise
+         * after its path, so the query parameters are kept apart.
+         */
+        private void encodeUrl(String url, String id, int[] heads, int[] tails, int row) {
+            if (url == null) {
+                heads[row] = 0;
+                tails[row] = 0;
+                return;
+            }
+            int idAt = id != null && !id.isEmpty() ? url.indexOf(id) : -1;
+            if (idAt >= 0) {
+                heads[row] = intern(url.substring(0, idAt));
+                tails[row] = (intern(url.substring(idAt + id.length())) << 1) | 1;
+                return;
+            }
+            int queryAt = url.indexOf('?');
+            int split = queryAt >= 0 ? queryAt + 1 : url.length();
+            heads[row] = intern(url.substring(0, split));
+            tails[row] = intern(url.substring(split)) << 1;
+        }
+
+        /** Returns the index of the given string, adding it if it's not there yet, 0 for null */
+        private int intern(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer index = mIndexOfString.get(value);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(value);
+                mIndexOfString.put(value, index);
+            }
+            return index;
+        }
+
+        private void allocate(int capacity) {
+            mIds = mIds == null ? new String[capacity] : Arrays.copyOf(mIds, capacity);
+            mPrices = mPrices == null ? new double[capacity] : Arrays.copyOf(mPrices, capacity);
+            mRatings = mRatings == null ? new double[capacity] : Arrays.copyOf(mRatings, capacity);
+            mTitleStarts = grow(mTitleStarts, capacity);
+            mTitleLengths = grow(mTitleLengths, capacity);
+            mAuthorIds = grow(mAuthorIds, capacity);
+            mCurrencyIds = grow(mCurrencyIds, capacity);
+            mDisplayPriceIds = grow(mDisplayPriceIds, capacity);
+            mDisplayRatingIds = grow(mDisplayRatingIds, capacity);
+            mCoverHeads = grow(mCoverHeads, capacity);
+            mCoverTails = grow(mCoverTails, capacity);
+            mUrlHeads = grow(mUrlHeads, capacity);
+            mUrlTails = grow(mUrlTails, capacity);
+        }
+
+        private static int[] grow(int[] array, int capacity) {
+            return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+        }
+
+        /**
+         * Returns the table of the books added so far, with the columns trimmed to their size.
+         */
+        public BookTable build() {
+            Columns columns = new Columns();
+            columns.ids = Arrays.copyOf(mIds, mSize);
+            columns.prices = Arrays.copyOf(mPrices, mSize);
+            columns.ratings = Arrays.copyOf(mRatings, mSize);
+            columns.titleBytes = Arrays.copyOf(mTitleBytes, mTitleByteCount);
+            columns.titleStarts = Arrays.copyOf(mTitleStarts, mSize);
+            columns.titleLengths = Arrays.copyOf(mTitleLengths, mSize);
+            columns.strings = mStrings.toArray(new String[mStrings.size()]);
+            columns.authorIds = Arrays.copyOf(mAuthorIds, mSize);
+            columns.currencyIds = Arrays.copyOf(mCurrencyIds, mSize);
+            columns.displayPriceIds = Arrays.copyOf(mDisplayPriceIds, mSize);
+            columns.displayRatingIds = Arrays.copyOf(mDisplayRatingIds, mSize);
+            columns.coverHeads = Arrays.copyOf(mCoverHeads, mSize);
+            columns.coverTails = Arrays.copyOf(mCoverTails, mSize);
+            columns.urlHeads = Arrays.copyOf(mUrlHeads, mSize);
+            columns.urlTails = Arrays.copyOf(mUrlTails, mSize);
+            columns.titles = new String[mSize];
+            columns.coverUrls = new String[mSize];
+            return new BookTable(columns, null, mSize);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.booklistingapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link CancellationToken} lets the caller of {@link QueryUtils#fetchBookData} give up on a
+ * request from another thread. The HTTP call itself is only cancelled once every caller waiting
+ * for the same url has given up on it.
+ */
+
+public class CancellationToken {
+
+    private boolean mCanceled;
+
+    /** The request the token is waiting for, or null if it is not waiting */
+    private QueryUtils.InFlightRequest mRequest;
+
+    /** Tokens of the requests made on behalf of this one, cancelled along with it */
+    private final List<CancellationToken> mChildren = new ArrayList<>();
+
+    /**
+     * Give up on the request. The thread waiting for the request returns as soon as possible.
+     */
+    public void cancel() {
+        QueryUtils.InFlightRequest request;
+        List<CancellationToken> children;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            request = mRequest;
+            children = new ArrayList<>(mChildren);
+        }
+        if (request != null) {
+            request.release();
+        }
+        for (CancellationToken child : children) {
+            child.cancel();
+        }
+    }
+
+    /**
+     * Cancel the given token along with this one, or right away if this one
+     * has already been cancelled.
+     */
+    public void addChild(CancellationToken child) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mChildren.add(child);
+                return;
+            }
+        }
+        child.cancel();
+    }
+
+    /** Returns true if the request has been given up on */
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Remember the request the token is waiting for. Returns false if the token
+     * has already been cancelled.
+     */
+    synchronized boolean attach(QueryUtils.InFlightRequest request) {
+        if (mCanceled) {
+            return false;
+        }
+        mRequest = request;
+        return true;
+    }
+}
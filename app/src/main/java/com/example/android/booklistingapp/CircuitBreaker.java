@@ -0,0 +1,66 @@
+package com.example.android.booklistingapp;
+
+/**
+ * A {@link CircuitBreaker} stops the requests to a server that keeps failing, so an outage isn't
+ * made worse by every search retrying against it, and the searches fall back to the cache at once.
+ *
+ * After a number of failures in a row the circuit opens, and every request is rejected for a
+ * while. Then a single request is let through: if it succeeds the circuit closes again, if it
+ * fails the circuit stays open for another while.
+ */
+
+final class CircuitBreaker {
+
+    /** Number of failed requests in a row that open the circuit */
+    private final int mFailureThreshold;
+
+    /** How long the circuit stays open before a request is let through again */
+    private final long mOpenMillis;
+
+    private int mConsecutiveFailures;
+
+    /** The time until which requests are rejected, or 0 if the circuit is closed */
+    private long mOpenUntil;
+
+    /** Whether the request let through after the circuit was open is still running */
+    private boolean mProbing;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * Returns true if a request can be made now. Must be followed by a call to
+     * {@link #onSuccess} or {@link #onFailure} once the request is done.
+     */
+    synchronized boolean allowRequest() {
+        if (mOpenUntil == 0) {
+            return true;
+        }
+        if (mProbing || System.currentTimeMillis() < mOpenUntil) {
+            return false;
+        }
+        mProbing = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        mConsecutiveFailures = 0;
+        mOpenUntil = 0;
+        mProbing = false;
+    }
+
+    synchronized void onFailure() {
+        mConsecutiveFailures++;
+        if (mProbing || mConsecutiveFailures >= mFailureThreshold) {
+            mOpenUntil = System.currentTimeMillis() + mOpenMillis;
+        }
+        mProbing = false;
+    }
+
+    /** Called instead of the other callbacks if the request was cancelled */
+    synchronized void onCanceled() {
+        mProbing = false;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.booklistingapp;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+import com.jakewharton.picasso.OkHttp3Downloader;
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+
+import okhttp3.Cache;
+
+/**
+ * A {@link CoverImageLoader} loads the cover images of the books into the rows of the list.
+ *
+ * The zoom level of every cover is picked by the size the cover is displayed at, or the lowest
+ * one on a slow network, see {@link FetchPolicy#lowResolutionCovers}. The images are downsampled
+ * to that size before they are kept in memory, and both the memory and the disk cache of the
+ * covers have an explicit budget. Loading can be paused while the list is flung, and the covers
+ * of the rows below the screen can be prefetched once the list comes to rest.
+ */
+
+public final class CoverImageLoader {
+
+    /** The part of the app's memory class that the decoded covers can take up */
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+
+    /** Size of the disk cache of the downloaded covers */
+    private static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+    /** Name of the directory inside the app's cache directory holding the covers */
+    private static final String DISK_CACHE_DIR = "covers";
+
+    /** Width in pixels of the covers returned with zoom=1, larger covers are requested with zoom=2 */
+    private static final int ZOOM_1_WIDTH = 128;
+
+    /** Tag of every cover request, used to pause and resume them together */
+    private static final Object TAG = new Object();
+
+    private static CoverImageLoader sInstance;
+
+    private final Picasso mPicasso;
+
+    private final NetworkMonitor mNetworkMonitor;
+
+    /** The size in pixels the covers are displayed at */
+    private final int mCoverWidth;
+    private final int mCoverHeight;
+
+    /**
+     * Returns the {@link CoverImageLoader} shared by the whole app.
+     */
+    public static synchronized CoverImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CoverImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns true if the {@link CoverImageLoader} has been created already, so using it
+     * doesn't set up the image library on the calling thread.
+     */
+    public static synchronized boolean isCreated() {
+        return sInstance != null;
+    }
+
+    private CoverImageLoader(Context context) {
+        mCoverWidth = context.getResources().getDimensionPixelSize(R.dimen.cover_width);
+        mCoverHeight = context.getResources().getDimensionPixelSize(R.dimen.cover_height);
+        mNetworkMonitor = NetworkMonitor.getInstance(context);
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryCacheBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_DIVIDER;
+
+        // The covers are downloaded with the shared HTTP client, with a cache of their own
+        Cache diskCache = new Cache(new File(context.getCacheDir(), DISK_CACHE_DIR), DISK_CACHE_BYTES);
+
+        mPicasso = new Picasso.Builder(context)
+                .downloader(new OkHttp3Downloader(HttpClient.get().newBuilder().cache(diskCache).build()))
+                .memoryCache(new LruCache(memoryCacheBytes))
+                // The covers are decoded on the pool shared with the requests of the searches,
+                // which go first
+                .executor(PriorityExecutor.getExecutorService())
+                // The covers have no transparency, so they take up half the memory this way
+                .defaultBitmapConfig(Bitmap.Config.RGB_565)
+                .build();
+    }
+
+    /**
+     * Load the cover image from the given url into the given view.
+     */
+    public void load(String coverImageUrl, ImageView target) {
+        mPicasso.load(getCoverUrl(coverImageUrl))
+                .placeholder(R.drawable.placeholder)
+                .resize(mCoverWidth, mCoverHeight)
+                .centerInside()
+                .onlyScaleDown()
+                .tag(TAG)
+                .into(target);
+    }
+
+    /**
+     * Load the given, full size cover image into the given view, e.g. on the detail screen.
+     * The image is scaled down to the size of the view, which must have been measured.
+     */
+    public void loadLarge(String coverImageUrl, ImageView target) {
+        mPicasso.load(coverImageUrl)
+                .placeholder(R.drawable.placeholder)
+                .fit()
+                .centerInside()
+                .tag(TAG)
+                .into(target);
+    }
+
+    /**
+     * Load the cover image from the given url into the caches, so it's displayed right away
+     * when its row is scrolled onto the screen.
+     */
+    public void prefetch(String coverImageUrl) {
+        if (coverImageUrl == null) {
+            return;
+        }
+        mPicasso.load(getCoverUrl(coverImageUrl))
+                .resize(mCoverWidth, mCoverHeight)
+                .centerInside()
+                .onlyScaleDown()
+                .priority(Picasso.Priority.LOW)
+                .tag(TAG)
+                .fetch();
+    }
+
+    /** Pause loading the covers, e.g. while the list is flung */
+    public void pause() {
+        mPicasso.pauseTag(TAG);
+    }
+
+    /** Resume loading the covers */
+    public void resume() {
+        mPicasso.resumeTag(TAG);
+    }
+
+    /**
+     * Returns the url of the cover with the smallest zoom level that is still at least
+     * as large as the size the cover is displayed at, or of the lowest zoom level if the
+     * network is too slow for large covers.
+     */
+    private String getCoverUrl(String coverImageUrl) {
+        if (coverImageUrl == null) {
+            return null;
+        }
+        boolean lowResolution = mNetworkMonitor.getPolicy().lowResolutionCovers;
+        String zoom = lowResolution || mCoverWidth <= ZOOM_1_WIDTH ? "&zoom=1" : "&zoom=2";
+        return coverImageUrl.replaceFirst("&zoom=\\d+", zoom);
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link FederatedSearch} fans a query out into several variants (the plain query, and the query
+ * restricted to the titles, to the authors, or to the ISBNs if it looks like one), requests all of
+ * them at the same time, and merges their results into one ranked list without duplicates.
+ *
+ * The merged results are handed out every time one more variant has arrived, so the search takes
+ * about as long as the slowest variant, and the first results show up with the fastest one.
+ */
+
+public final class FederatedSearch {
+
+    private static final String LOG_TAG = FederatedSearch.class.getSimpleName();
+
+    /**
+     * Callback invoked with the merged results every time a variant of the query has arrived
+     */
+    public interface OnPartialResultListener {
+        void onPartialResult(List<Book> books);
+    }
+
+    /**
+     * Constant of the reciprocal rank fusion: a book at position p of a variant scores
+     * 1 / (RANK_OFFSET + p), which keeps the top positions of a variant from outweighing
+     * books that are found by several variants.
+     */
+    private static final int RANK_OFFSET = 60;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link FederatedSearch} object.
+     */
+    private FederatedSearch() {
+    }
+
+    /**
+     * Returns the queries the given query is fanned out into, the plain query first. A query
+     * that already uses a search operator is only searched for as it is.
+     */
+    static List<String> buildVariants(String query) {
+        List<String> variants = new ArrayList<>();
+        query = query.trim();
+        variants.add(query);
+        if (query.contains(":")) {
+            return variants;
+        }
+        String digits = query.replaceAll("[\\s-]", "");
+        if (digits.matches("\\d{9}[\\dXx]|\\d{13}")) {
+            variants.add("isbn:" + digits);
+            return variants;
+        }
+        variants.add("intitle:" + query);
+        variants.add("inauthor:" + query);
+        return variants;
+    }
+
+    /**
+     * Search for the first page of every variant of the query at the same time, and return
+     * their merged results, or null if none of them could be loaded.
+     * Must not be called on the main thread, nor on the shared {@link PriorityExecutor}.
+     *
+     * @param query the search query, as entered by the user
+     * @param pageSize the number of books requested for every variant
+     * @param cache serves the variants searched for recently
+     * @param listener is notified of the merged results on the calling thread every time a
+     *                 variant has arrived, except for the last one, whose results are returned
+     * @param token can be used to give up on the search, in which case null is returned
+     */
+    public static List<Book> search(String query, int pageSize, final BookCache cache,
+                                    OnPartialResultListener listener, CancellationToken token) {
+        List<String> variants = buildVariants(query);
+        // The variants are requested on the shared pool, ahead of the covers and the prefetches
+        CompletionService<List<Book>> completionService = new ExecutorCompletionService<>(
+                PriorityExecutor.getExecutor(PriorityExecutor.PRIORITY_SEARCH));
+        Map<Future<List<Book>>, Integer> variantOfFuture = new HashMap<>();
+        for (int variant = 0; variant < variants.size(); variant++) {
+            final String url = BookPager.getPageUrl(
+                    QueryUtils.buildSearchUrl(variants.get(variant)), 0, pageSize);
+            final CancellationToken variantToken = new CancellationToken();
+            token.addChild(variantToken);
+            Future<List<Book>> future = completionService.submit(new Callable<List<Book>>() {
+                @Override
+                public List<Book> call() {
+                    return QueryUtils.fetchBookData(url, cache, null, variantToken);
+                }
+            });
+            variantOfFuture.put(future, variant);
+        }
+
+        // Merge the results in the order the variants arrive
+        List<List<Book>> results = new ArrayList<>(Collections.<List<Book>>nCopies(variants.size(), null));
+        boolean anyLoaded = false;
+        for (int arrived = 1; arrived <= variants.size(); arrived++) {
+            try {
+                Future<List<Book>> future = completionService.take();
+                List<Book> books = future.get();
+                if (token.isCanceled()) {
+                    return null;
+                }
+                if (books == null) {
+                    continue;
+                }
+                anyLoaded = true;
+                results.set(variantOfFuture.get(future), books);
+                if (listener != null && arrived < variants.size()) {
+                    listener.onPartialResult(merge(results));
+                }
+            } catch (InterruptedException e) {
+                token.cancel();
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Problem searching for a variant of the query", e);
+            }
+        }
+        return anyLoaded ? merge(results) : null;
+    }
+
+    /**
+     * Returns the books of the given results without duplicates, ranked by the sum of their
+     * reciprocal ranks over the results they appear in. Results that are null are skipped.
+     */
+    static List<Book> merge(List<List<Book>> results) {
+        final Map<String, Double> scores = new HashMap<>();
+        final Map<String, Book> books = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        for (List<Book> result : results) {
+            if (result == null) {
+                continue;
+            }
+            for (int position = 0; position < result.size(); position++) {
+                Book book = result.get(position);
+                String key = book.getId() != null ? book.getId() : book.getUrl();
+                Double score = scores.get(key);
+                if (score == null) {
+                    score = 0.0;
+                    books.put(key, book);
+                    keys.add(key);
+                }
+                scores.put(key, score + 1.0 / (RANK_OFFSET + position));
+            }
+        }
+
+        // The sort is stable, so books with the same score keep the order they were found in
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String key1, String key2) {
+                return Double.compare(scores.get(key2), scores.get(key1));
+            }
+        });
+        List<Book> merged = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            merged.add(books.get(key));
+        }
+        return merged;
+    }
+}
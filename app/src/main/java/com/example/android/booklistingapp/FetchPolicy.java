@@ -0,0 +1,122 @@
+package com.example.android.booklistingapp;
+
+/**
+ * A {@link FetchPolicy} tells how much the app fetches at once on the current network: the number
+ * of books requested on a page, the resolution of the covers, how far ahead the pages, the covers
+ * and the details are prefetched, and the timeouts of the requests.
+ *
+ * There is a policy for every tier of connection quality. On a slow network the pages are small,
+ * so the first books arrive sooner, the covers are requested at the lowest resolution, nothing is
+ * prefetched that the user doesn't ask for, and the timeouts are long enough for a slow response
+ * to complete. On a fast, unmetered network the pages are as large as the API allows, and more is
+ * prefetched. The tier is picked by {@link #select}, see {@link NetworkMonitor}.
+ *
+ * This class doesn't depend on the Android framework.
+ */
+
+public final class FetchPolicy {
+
+    /** The tiers of connection quality, from the worst */
+    public static final int TIER_POOR = 0;
+    public static final int TIER_MODERATE = 1;
+    public static final int TIER_GOOD = 2;
+    public static final int TIER_EXCELLENT = 3;
+
+    /** E.g. 2G, or a congested network */
+    public static final FetchPolicy POOR = new FetchPolicy(TIER_POOR, 10, true, 0, false, 0, 30000, 30000);
+
+    /** E.g. 3G */
+    public static final FetchPolicy MODERATE = new FetchPolicy(TIER_MODERATE, 20, true, 0, true, 1, 20000, 20000);
+
+    /** E.g. 4G, the policy used until the network is known */
+    public static final FetchPolicy GOOD = new FetchPolicy(TIER_GOOD, BookPager.PAGE_SIZE, false, 1, true, 3,
+            HttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS, HttpClient.DEFAULT_READ_TIMEOUT_MILLIS);
+
+    /** A fast, unmetered network, e.g. Wi-Fi */
+    public static final FetchPolicy EXCELLENT = new FetchPolicy(TIER_EXCELLENT, 40, false, 2, true, 5, 10000, 10000);
+
+    private static final FetchPolicy[] POLICIES = {POOR, MODERATE, GOOD, EXCELLENT};
+
+    /**
+     * The lowest measured bandwidth in kilobits per second, and the highest measured round trip
+     * time in milliseconds, of the moderate, the good and the excellent tier. The round trip time
+     * is measured up to the first byte of the response, so it includes the time of the server.
+     */
+    private static final long[] MIN_BANDWIDTH_KBPS = {150, 1000, 5000};
+    private static final long[] MAX_RTT_MILLIS = {2500, 1200, 600};
+
+    public final int tier;
+
+    /** Number of books requested on a page */
+    public final int pageSize;
+
+    /** Whether the covers are requested at the lowest resolution, whatever size they're shown at */
+    public final boolean lowResolutionCovers;
+
+    /** Number of pages after the last page in memory that are loaded into the cache ahead of time */
+    public final int prefetchPages;
+
+    /** Whether the covers of the rows below the screen are loaded ahead of time */
+    public final boolean prefetchCovers;
+
+    /** Maximum number of visible rows whose details are loaded ahead of time */
+    public final int prefetchDetails;
+
+    public final long connectTimeoutMillis;
+    public final long readTimeoutMillis;
+
+    private FetchPolicy(int tier, int pageSize, boolean lowResolutionCovers, int prefetchPages,
+                        boolean prefetchCovers, int prefetchDetails, long connectTimeoutMillis,
+                        long readTimeoutMillis) {
+        this.tier = tier;
+        this.pageSize = pageSize;
+        this.lowResolutionCovers = lowResolutionCovers;
+        this.prefetchPages = prefetchPages;
+        this.prefetchCovers = prefetchCovers;
+        this.prefetchDetails = prefetchDetails;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /** Returns the policy of the given tier */
+    public static FetchPolicy forTier(int tier) {
+        return POLICIES[Math.max(TIER_POOR, Math.min(TIER_EXCELLENT, tier))];
+    }
+
+    /**
+     * Returns the policy for a network of the given type tier, e.g. {@link #TIER_MODERATE} for
+     * 3G, and the given measurements. Once there are measurements, they decide the tier, but an
+     * unmetered network is needed for the excellent tier, so metered networks never prefetch
+     * aggressively.
+     *
+     * @param typeTier the tier expected of the type of the network
+     * @param metered whether the network is metered
+     * @param bandwidthKbps the measured bandwidth, or -1 if it hasn't been measured
+     * @param rttMillis the measured round trip time, or -1 if it hasn't been measured
+     */
+    public static FetchPolicy select(int typeTier, boolean metered, long bandwidthKbps, long rttMillis) {
+        int tier = typeTier;
+        if (bandwidthKbps >= 0 || rttMillis >= 0) {
+            tier = TIER_EXCELLENT;
+            for (int i = 0; i < MIN_BANDWIDTH_KBPS.length; i++) {
+                if ((bandwidthKbps >= 0 && bandwidthKbps < MIN_BANDWIDTH_KBPS[i])
+                        || (rttMillis >= 0 && rttMillis > MAX_RTT_MILLIS[i])) {
+                    tier = i;
+                    break;
+                }
+            }
+        }
+        if (metered) {
+            tier = Math.min(tier, TIER_GOOD);
+        }
+        return forTier(tier);
+    }
+
+    @Override
+    public String toString() {
+        return "FetchPolicy{tier=" + tier + ", pageSize=" + pageSize + ", lowResolutionCovers="
+                + lowResolutionCovers + ", prefetchPages=" + prefetchPages + ", prefetchCovers="
+                + prefetchCovers + ", prefetchDetails=" + prefetchDetails + ", connectTimeoutMillis="
+                + connectTimeoutMillis + ", readTimeoutMillis=" + readTimeoutMillis + "}";
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.android.booklistingapp;
+
+/**
+ * A {@link Histogram} counts recorded values in buckets whose width grows with the value, so any
+ * percentile can be read back with an error of at most 1/8 of the value, in a fixed amount of
+ * memory and without allocating anything per recorded value.
+ */
+
+final class Histogram {
+
+    /** Number of buckets each power of two is split into */
+    private static final int SUB_BUCKET_COUNT = 8;
+
+    /** log2 of {@link #SUB_BUCKET_COUNT} */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** Values below {@link #SUB_BUCKET_COUNT} have a bucket of their own, then come 8 buckets for
+     *  each power of two up to 2^62 */
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    /** Record a value, negative values are recorded as 0 */
+    synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[indexOf(value)]++;
+        mCount++;
+        mSum += value;
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    synchronized long getCount() {
+        return mCount;
+    }
+
+    synchronized long getMax() {
+        return mMax;
+    }
+
+    synchronized double getMean() {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall,
+     * rounded up to the upper bound of its bucket, or 0 if nothing has been recorded.
+     */
+    synchronized long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * mCount);
+        rank = Math.max(1, Math.min(mCount, rank));
+        long seen = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            seen += mCounts[index];
+            if (seen >= rank) {
+                return Math.min(mMax, upperBoundOf(index));
+            }
+        }
+        return mMax;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /** Returns the largest value that falls into the bucket with the given index */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
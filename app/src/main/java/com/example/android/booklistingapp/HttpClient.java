@@ -0,0 +1,62 @@
+package com.example.android.booklistingapp;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * Holds the HTTP client shared by every request of the app. Sharing a single client keeps the
+ * connections to the API alive between the searches, so the TLS handshake is only paid once,
+ * and lets the requests to the same host be multiplexed over one HTTP/2 connection.
+ * Responses are requested gzip compressed and decompressed transparently.
+ */
+
+public final class HttpClient {
+
+    /** Default timeout for establishing a connection */
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /** Default timeout for reading the response */
+    public static final long DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+    /** Maximum number of idle connections kept in the pool */
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    /** How long an idle connection is kept in the pool */
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static OkHttpClient sClient;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link HttpClient} object.
+     */
+    private HttpClient() {
+    }
+
+    /**
+     * Returns the shared HTTP client.
+     */
+    public static synchronized OkHttpClient get() {
+        if (sClient == null) {
+            sClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .connectTimeout(DEFAULT_CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .readTimeout(DEFAULT_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .eventListenerFactory(HttpMetricsListener.FACTORY)
+                    .build();
+        }
+        return sClient;
+    }
+
+    /**
+     * Change the timeouts of the shared client. The new client keeps using the same
+     * connection pool, so the open connections are not lost.
+     */
+    public static synchronized void setTimeouts(long connectTimeoutMillis, long readTimeoutMillis) {
+        sClient = get().newBuilder()
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+}
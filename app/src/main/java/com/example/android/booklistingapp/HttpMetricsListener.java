@@ -0,0 +1,105 @@
+package com.example.android.booklistingapp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * An {@link HttpMetricsListener} times the phases of a single HTTP call and records them in the
+ * {@link Metrics}: the DNS lookup, the connection including the TLS handshake, the time to the
+ * first byte of the response, the download of the body and the whole call. The requests to the
+ * API and the requests of the cover images are recorded separately.
+ *
+ * The response body is parsed while it is downloaded, so the download time includes the parsing.
+ * The round trip times and the downloads are also reported to the {@link NetworkMonitor}, which
+ * picks the {@link FetchPolicy} by them.
+ */
+
+final class HttpMetricsListener extends EventListener {
+
+    /** Creates a listener for every call of the shared HTTP client */
+    static final EventListener.Factory FACTORY = new EventListener.Factory() {
+        @Override
+        public EventListener create(Call call) {
+            boolean isApiCall = call.request().url().encodedPath().startsWith("/books/v1/");
+            return new HttpMetricsListener(isApiCall ? Metrics.API_PREFIX : Metrics.COVERS_PREFIX);
+        }
+    };
+
+    private final String mPrefix;
+
+    private long mCallStart;
+    private long mDnsStart;
+    private long mConnectStart;
+    private long mRequestHeadersStart;
+    private long mResponseBodyStart;
+
+    private HttpMetricsListener(String prefix) {
+        mPrefix = prefix;
+    }
+
+    @Override
+    public void callStart(Call call) {
+        mCallStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        mDnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        Metrics.recordSince(mPrefix + Metrics.DNS, mDnsStart);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        mConnectStart = System.nanoTime();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        Metrics.recordSince(mPrefix + Metrics.CONNECT, mConnectStart);
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        mRequestHeadersStart = System.nanoTime();
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        Metrics.recordSince(mPrefix + Metrics.TTFB, mCallStart);
+        // Without the DNS lookup and the connection, which are not made for every request
+        NetworkMonitor.recordRoundTrip(System.nanoTime() - mRequestHeadersStart);
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+        mResponseBodyStart = System.nanoTime();
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        Metrics.recordSince(mPrefix + Metrics.DOWNLOAD, mResponseBodyStart);
+        Metrics.increment(mPrefix + Metrics.BYTES, byteCount);
+        NetworkMonitor.recordDownload(byteCount, System.nanoTime() - mResponseBodyStart);
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        Metrics.recordSince(mPrefix + Metrics.CALL, mCallStart);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        Metrics.increment(mPrefix + Metrics.FAILED, 1);
+    }
+}
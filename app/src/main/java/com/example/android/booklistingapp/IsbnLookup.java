@@ -0,0 +1,191 @@
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+
+/**
+ * An {@link IsbnLookup} looks up a whole list of ISBNs, e.g. scanned or imported by the user,
+ * instead of searching for them one at a time. The ISBNs are grouped into batches, every batch
+ * is searched for with one query of the form "isbn:A OR isbn:B OR ...", and a few batches are
+ * requested at the same time.
+ *
+ * The books found are handed out every time a batch has arrived, so they show up in the list
+ * while the rest of the batches are still loading.
+ */
+
+public final class IsbnLookup {
+
+    private static final String LOG_TAG = IsbnLookup.class.getSimpleName();
+
+    /**
+     * Callback invoked with the books found so far every time a batch has arrived
+     */
+    public interface OnBatchResultListener {
+        void onBatchResult(List<Book> books);
+    }
+
+    /** Maximum number of books returned for a request, the most the API allows */
+    static final int MAX_RESULTS = 40;
+
+    /**
+     * Maximum number of ISBNs in a batch. An ISBN can match several volumes, e.g. editions,
+     * so a batch holds far fewer ISBNs than the books returned for it, to get all of them.
+     */
+    static final int MAX_BATCH_SIZE = 10;
+
+    /** Maximum length of the url of a batch, longer urls are rejected by some proxies */
+    static final int MAX_URL_LENGTH = 2000;
+
+    /**
+     * Maximum number of batches requested at the same time, fewer than the threads of the
+     * {@link PriorityExecutor}, so the covers and the pages still get a thread
+     */
+    private static final int MAX_CONCURRENT_BATCHES = PriorityExecutor.THREAD_COUNT / 2;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link IsbnLookup} object.
+     */
+    private IsbnLookup() {
+    }
+
+    /**
+     * Returns the ISBNs of the given text without duplicates, if the text is a list of at least
+     * two ISBNs separated by spaces, commas, semicolons or lines, and null otherwise. The ISBNs
+     * may contain dashes, and be prefixed with "isbn:".
+     */
+    public static List<String> parseIsbnList(String text) {
+        if (text == null) {
+            return null;
+        }
+        Set<String> isbns = new LinkedHashSet<>();
+        for (String token : text.trim().split("[\\s,;]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            String isbn = token.toUpperCase(Locale.US).replace("ISBN:", "").replace("-", "");
+            if (!isbn.matches("\\d{9}[\\dX]|\\d{13}")) {
+                return null;
+            }
+            isbns.add(isbn);
+        }
+        return isbns.size() >= 2 ? new ArrayList<>(isbns) : null;
+    }
+
+    /**
+     * Returns the urls of the batches of the given ISBNs. Every batch holds as many ISBNs as fit
+     * in {@link #MAX_BATCH_SIZE} and {@link #MAX_URL_LENGTH}.
+     */
+    static List<String> buildBatchUrls(List<String> isbns) {
+        List<String> urls = new ArrayList<>();
+        StringBuilder batchQuery = new StringBuilder();
+        String batchUrl = null;
+        int batchSize = 0;
+        for (String isbn : isbns) {
+            String term = "isbn:" + isbn;
+            if (batchSize > 0) {
+                // Add the ISBN to the batch if it still fits, and close the batch otherwise
+                String url = buildUrl(batchQuery + " OR " + term);
+                if (batchSize < MAX_BATCH_SIZE && url.length() <= MAX_URL_LENGTH) {
+                    batchQuery.append(" OR ").append(term);
+                    batchUrl = url;
+                    batchSize++;
+                    continue;
+                }
+                urls.add(batchUrl);
+            }
+            batchQuery.setLength(0);
+            batchQuery.append(term);
+            batchUrl = buildUrl(term);
+            batchSize = 1;
+        }
+        if (batchUrl != null) {
+            urls.add(batchUrl);
+        }
+        return urls;
+    }
+
+    private static String buildUrl(String query) {
+        return BookPager.getPageUrl(QueryUtils.buildSearchUrl(query), 0, MAX_RESULTS);
+    }
+
+    /**
+     * Look up the given ISBNs, and return the books found, without duplicates and in the order
+     * the batches arrived in, or null if none of the batches could be loaded.
+     * Must not be called on the main thread, nor on the shared {@link PriorityExecutor}.
+     *
+     * @param isbns the ISBNs to look up, see {@link #parseIsbnList}
+     * @param cache serves the batches looked up recently
+     * @param listener is notified of the books found so far on the calling thread every time
+     *                 a batch has arrived, except for the last one, whose books are returned
+     * @param token can be used to give up on the lookup, in which case null is returned
+     */
+    public static List<Book> lookup(List<String> isbns, final BookCache cache,
+                                    OnBatchResultListener listener, CancellationToken token) {
+        List<String> urls = buildBatchUrls(isbns);
+        // The batches are requested on the shared pool, ahead of the covers and the prefetches,
+        // but only a few at a time, so they don't hold up the covers of the books already found
+        CompletionService<List<Book>> completionService = new ExecutorCompletionService<>(
+                PriorityExecutor.getExecutor(PriorityExecutor.PRIORITY_SEARCH));
+        int submitted = 0;
+        while (submitted < Math.min(urls.size(), MAX_CONCURRENT_BATCHES)) {
+            submitBatch(completionService, urls.get(submitted++), cache, token);
+        }
+
+        Map<String, Book> books = new LinkedHashMap<>();
+        boolean anyLoaded = false;
+        for (int arrived = 1; arrived <= urls.size(); arrived++) {
+            try {
+                List<Book> batchBooks = completionService.take().get();
+                if (token.isCanceled()) {
+                    return null;
+                }
+                if (batchBooks != null) {
+                    anyLoaded = true;
+                    for (Book book : batchBooks) {
+                        String key = book.getId() != null ? book.getId() : book.getUrl();
+                        if (!books.containsKey(key)) {
+                            books.put(key, book);
+                        }
+                    }
+                    if (listener != null && arrived < urls.size()) {
+                        listener.onBatchResult(new ArrayList<>(books.values()));
+                    }
+                }
+            } catch (InterruptedException e) {
+                token.cancel();
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Problem looking up a batch of ISBNs", e);
+            }
+            // The next batch takes the place of this one once its books have been handed out
+            if (submitted < urls.size()) {
+                submitBatch(completionService, urls.get(submitted++), cache, token);
+            }
+        }
+        return anyLoaded ? new ArrayList<>(books.values()) : null;
+    }
+
+    private static void submitBatch(CompletionService<List<Book>> completionService, final String url,
+                                    final BookCache cache, CancellationToken token) {
+        final CancellationToken batchToken = new CancellationToken();
+        token.addChild(batchToken);
+        completionService.submit(new Callable<List<Book>>() {
+            @Override
+            public List<Book> call() {
+                return QueryUtils.fetchBookData(url, cache, null, batchToken);
+            }
+        });
+    }
+}
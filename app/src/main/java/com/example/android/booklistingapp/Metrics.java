@@ -0,0 +1,195 @@
+package com.example.android.booklistingapp;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the timings and the counters of the search pipeline: the phases of the HTTP requests,
+ * the parsing, the binding of the rows, the bytes transferred and the hits of the cache.
+ *
+ * The timings are kept in {@link Histogram}s, in microseconds, and everything can be written out
+ * with {@link #dump}, which is what {@code adb shell dumpsys activity
+ * com.example.android.booklistingapp} prints for the {@link BookActivity}.
+ */
+
+public final class Metrics {
+
+    /** Phases of the requests to the API, see {@link HttpMetricsListener} */
+    public static final String API_PREFIX = "api.";
+
+    /** Phases of the requests of the cover images */
+    public static final String COVERS_PREFIX = "covers.";
+
+    public static final String DNS = "dns";
+    public static final String CONNECT = "connect";
+    public static final String TTFB = "ttfb";
+    public static final String DOWNLOAD = "download";
+    public static final String CALL = "call";
+    public static final String BYTES = "bytes";
+    public static final String FAILED = "failed";
+
+    /** Attempts of the requests to the API that were retried, hedged or rejected by the breaker */
+    public static final String RETRIES = "api.retries";
+    public static final String HEDGES = "api.hedges";
+    public static final String CIRCUIT_OPEN = "api.circuit_open";
+
+    /** Reading and parsing the response body, which overlaps with its download */
+    public static final String PARSE = "api.parse";
+    public static final String PARSE_DETAILS = "api.parse_details";
+
+    /** From the start of a load to the first books delivered, and to the end of the load */
+    public static final String SEARCH_FIRST_RESULT = "search.first_result";
+    public static final String SEARCH_TOTAL = "search.total";
+
+    /**
+     * From the creation of the {@link BookActivity} to its first frame, and until it shows books,
+     * either the books of the last search, restored on the first frame, or newly loaded ones
+     */
+    public static final String STARTUP_FIRST_FRAME = "startup.first_frame";
+    public static final String STARTUP_CONTENT = "startup.content";
+
+    /** Looking up the suggestions of the search bar in the {@link SuggestionIndex} */
+    public static final String SUGGEST = "ui.suggest";
+
+    /** Binding a single row, and all the rows bound in a frame */
+    public static final String BIND = "ui.bind";
+    public static final String FRAME_BIND = "ui.frame_bind";
+
+    /** Outcomes of the lookups in the {@link BookCache} */
+    public static final String CACHE_HIT = "cache.hit";
+    public static final String CACHE_REVALIDATED = "cache.revalidated";
+    public static final String CACHE_MISS = "cache.miss";
+    public static final String CACHE_STALE = "cache.stale_fallback";
+
+    /** Outcomes of the lookups in the {@link BookDetailsCache} */
+    public static final String DETAILS_HIT = "details.hit";
+    public static final String DETAILS_MISS = "details.miss";
+
+    /** Percentiles written out for every histogram */
+    private static final double[] PERCENTILES = {50, 90, 95, 99};
+
+    private static final Map<String, Histogram> sHistograms = new TreeMap<>();
+
+    private static final Map<String, long[]> sCounters = new TreeMap<>();
+
+    /**
+     * Create a private constructor because no one should ever create a {@link Metrics} object.
+     */
+    private Metrics() {
+    }
+
+    /** Returns the time to pass to {@link #recordSince} */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /** Record the time passed since the given {@link #start} time in the named histogram */
+    public static void recordSince(String name, long startNanos) {
+        recordNanos(name, System.nanoTime() - startNanos);
+    }
+
+    /** Record a duration in the named histogram */
+    public static void recordNanos(String name, long nanos) {
+        getHistogram(name).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /** Add the given amount to the named counter */
+    public static void increment(String name, long delta) {
+        synchronized (sCounters) {
+            long[] counter = sCounters.get(name);
+            if (counter == null) {
+                counter = new long[1];
+                sCounters.put(name, counter);
+            }
+            counter[0] += delta;
+        }
+    }
+
+    private static Histogram getHistogram(String name) {
+        synchronized (sHistograms) {
+            Histogram histogram = sHistograms.get(name);
+            if (histogram == null) {
+                histogram = new Histogram();
+                sHistograms.put(name, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Returns the given percentile of the named histogram in microseconds, or -1 if fewer than
+     * the given number of values have been recorded in it.
+     */
+    public static long getPercentile(String name, double percentile, long minCount) {
+        Histogram histogram;
+        synchronized (sHistograms) {
+            histogram = sHistograms.get(name);
+        }
+        if (histogram == null || histogram.getCount() < minCount) {
+            return -1;
+        }
+        return histogram.getPercentile(percentile);
+    }
+
+    private static long getCounter(String name) {
+        synchronized (sCounters) {
+            long[] counter = sCounters.get(name);
+            return counter == null ? 0 : counter[0];
+        }
+    }
+
+    /** Forget everything recorded so far */
+    public static void reset() {
+        synchronized (sHistograms) {
+            sHistograms.clear();
+        }
+        synchronized (sCounters) {
+            sCounters.clear();
+        }
+    }
+
+    /**
+     * Write out the percentiles of every histogram in milliseconds, the counters,
+     * and the hit ratio of the cache.
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Metrics (ms):");
+        synchronized (sHistograms) {
+            for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+                Histogram histogram = entry.getValue();
+                StringBuilder line = new StringBuilder(prefix).append("  ").append(entry.getKey())
+                        .append(" count=").append(histogram.getCount())
+                        .append(" mean=").append(toMillis(histogram.getMean()));
+                for (double percentile : PERCENTILES) {
+                    line.append(" p").append((int) percentile).append('=')
+                            .append(toMillis(histogram.getPercentile(percentile)));
+                }
+                line.append(" max=").append(toMillis(histogram.getMax()));
+                writer.println(line);
+            }
+        }
+
+        writer.print(prefix);
+        writer.println("Counters:");
+        synchronized (sCounters) {
+            for (Map.Entry<String, long[]> entry : sCounters.entrySet()) {
+                writer.print(prefix);
+                writer.println("  " + entry.getKey() + "=" + entry.getValue()[0]);
+            }
+        }
+
+        long hits = getCounter(CACHE_HIT) + getCounter(CACHE_REVALIDATED);
+        long lookups = hits + getCounter(CACHE_MISS);
+        writer.print(prefix);
+        writer.println(String.format(Locale.US, "Cache hit ratio: %.1f%% (%d of %d)",
+                lookups == 0 ? 0.0 : 100.0 * hits / lookups, hits, lookups));
+    }
+
+    private static String toMillis(double micros) {
+        return String.format(Locale.US, "%.1f", micros / 1000);
+    }
+}
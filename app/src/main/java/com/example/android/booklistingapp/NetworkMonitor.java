@@ -0,0 +1,347 @@
+package com.example.android.booklistingapp;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.telephony.TelephonyManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link NetworkMonitor} follows the network the app is connected to while the app runs, and
+ * picks the {@link FetchPolicy} of the app for it.
+ *
+ * Until something has been measured on a network, the policy is picked by the type of the
+ * network, e.g. 2G, 3G or Wi-Fi. The {@link HttpMetricsListener} reports the round trip time and
+ * the bandwidth of every request of the app, and once there are a few of them, their moving
+ * averages decide the policy instead. The measurements are dropped when the network changes.
+ * The timeouts of the shared {@link HttpClient} are changed with the policy.
+ *
+ * The network is followed with a network callback from Android 5.0 on, and with the
+ * connectivity broadcast before. The listeners are notified on the main thread.
+ */
+
+public final class NetworkMonitor {
+
+    /**
+     * Callback invoked on the main thread when the app is connected to another network,
+     * or loses the connection
+     */
+    public interface Listener {
+        void onNetworkChanged(boolean connected, FetchPolicy policy);
+    }
+
+    /** Weight of a new measurement in the moving averages */
+    private static final double SMOOTHING = 0.3;
+
+    /** Number of measurements needed before they are trusted over the type of the network */
+    private static final int MIN_SAMPLES = 3;
+
+    /** Bodies smaller than this are mostly latency, so they don't tell the bandwidth */
+    private static final long MIN_BANDWIDTH_SAMPLE_BYTES = 8 * 1024;
+
+    /** Preferences counting the searches made on every tier */
+    private static final String PREFERENCES_NAME = "network";
+    private static final String PREF_SEARCHES_PREFIX = "searches_tier_";
+
+    /** Once a tier has this many searches, the counts are halved, so they follow recent habits */
+    private static final int MAX_SEARCH_COUNT = 32;
+
+    private static NetworkMonitor sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+
+    private final SharedPreferences mPreferences;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The listeners, only used on the main thread */
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private boolean mConnected;
+
+    /** The type and the subtype of the network, to tell when it changes */
+    private String mNetworkKey;
+
+    /** The tier expected of the type of the network, and whether it's metered */
+    private int mTypeTier = FetchPolicy.TIER_GOOD;
+    private boolean mMetered;
+
+    /** Moving averages of the measurements on the current network */
+    private double mBandwidthKbps;
+    private int mBandwidthSamples;
+    private double mRttMillis;
+    private int mRttSamples;
+
+    private volatile FetchPolicy mPolicy = FetchPolicy.GOOD;
+
+    /**
+     * Returns the {@link NetworkMonitor} shared by the whole app, which starts following the
+     * network the first time. That makes a few calls to the system, so it's better not done
+     * on the main thread while the app starts.
+     */
+    public static synchronized NetworkMonitor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkMonitor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NetworkMonitor(Context context) {
+        mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        update();
+        register(context);
+    }
+
+    /** Returns the policy for the current network */
+    public FetchPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /** Returns true if there was a network connection when the network changed last */
+    public synchronized boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * Count a search of the user that was loaded with the given policy.
+     */
+    public synchronized void recordSearch(FetchPolicy policy) {
+        String key = PREF_SEARCHES_PREFIX + policy.tier;
+        int count = mPreferences.getInt(key, 0) + 1;
+        SharedPreferences.Editor editor = mPreferences.edit();
+        if (count >= MAX_SEARCH_COUNT) {
+            for (int tier = FetchPolicy.TIER_POOR; tier <= FetchPolicy.TIER_EXCELLENT; tier++) {
+                editor.putInt(PREF_SEARCHES_PREFIX + tier, mPreferences.getInt(PREF_SEARCHES_PREFIX + tier, 0) / 2);
+            }
+            count /= 2;
+        }
+        editor.putInt(key, count).apply();
+    }
+
+    /**
+     * Returns the policy of the tier most searches of the user are made on, or the policy for
+     * the current network if there were no searches yet. The work done ahead of time, e.g. by the
+     * {@link PrefetchJobService}, uses its page size, so the pages it caches are the ones the
+     * searches request, even though it runs on another network.
+     */
+    public synchronized FetchPolicy getUsualSearchPolicy() {
+        FetchPolicy usualPolicy = mPolicy;
+        int maxCount = 0;
+        for (int tier = FetchPolicy.TIER_POOR; tier <= FetchPolicy.TIER_EXCELLENT; tier++) {
+            int count = mPreferences.getInt(PREF_SEARCHES_PREFIX + tier, 0);
+            if (count > maxCount) {
+                maxCount = count;
+                usualPolicy = FetchPolicy.forTier(tier);
+            }
+        }
+        return usualPolicy;
+    }
+
+    /** Must be called on the main thread */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /** Must be called on the main thread */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Record the time from sending a request to the first byte of its response.
+     * Nothing is recorded until the monitor is started.
+     */
+    static void recordRoundTrip(long nanos) {
+        NetworkMonitor monitor = getStartedInstance();
+        if (monitor != null) {
+            monitor.addRoundTrip(TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    /**
+     * Record the download of a response body of the given size in the given time.
+     * Nothing is recorded until the monitor is started.
+     */
+    static void recordDownload(long byteCount, long nanos) {
+        NetworkMonitor monitor = getStartedInstance();
+        if (monitor != null && byteCount >= MIN_BANDWIDTH_SAMPLE_BYTES && nanos > 0) {
+            monitor.addBandwidth(byteCount * 8 * TimeUnit.SECONDS.toNanos(1) / nanos / 1000);
+        }
+    }
+
+    private static synchronized NetworkMonitor getStartedInstance() {
+        return sInstance;
+    }
+
+    private synchronized void addRoundTrip(long rttMillis) {
+        mRttMillis = mRttSamples == 0 ? rttMillis : mRttMillis + SMOOTHING * (rttMillis - mRttMillis);
+        mRttSamples++;
+        updatePolicy();
+    }
+
+    private synchronized void addBandwidth(long bandwidthKbps) {
+        mBandwidthKbps = mBandwidthSamples == 0
+                ? bandwidthKbps : mBandwidthKbps + SMOOTHING * (bandwidthKbps - mBandwidthKbps);
+        mBandwidthSamples++;
+        updatePolicy();
+    }
+
+    /**
+     * Follow the default network, and read it again every time it changes.
+     */
+    private void register(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // The callback is called on a thread of the system, the network is read on the main thread
+            ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    postUpdate();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    postUpdate();
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                    postUpdate();
+                }
+            };
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                mConnectivityManager.registerDefaultNetworkCallback(callback);
+            } else {
+                mConnectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build(), callback);
+            }
+        } else {
+            // The broadcast is received on the main thread
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update();
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    private void postUpdate() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                update();
+            }
+        });
+    }
+
+    /**
+     * Read the active network, and if it's another network than before, forget the measurements,
+     * pick the policy by the type of the new network and notify the listeners.
+     */
+    private void update() {
+        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        boolean connected = networkInfo != null && networkInfo.isConnected();
+        String networkKey = connected ? networkInfo.getType() + ":" + networkInfo.getSubtype() : null;
+        boolean metered = connected && ConnectivityManagerCompat.isActiveNetworkMetered(mConnectivityManager);
+        FetchPolicy policy;
+        synchronized (this) {
+            boolean sameNetwork = networkKey == null ? mNetworkKey == null : networkKey.equals(mNetworkKey);
+            if (connected == mConnected && sameNetwork && metered == mMetered && mNetworkKey != null) {
+                return;
+            }
+            if (!sameNetwork) {
+                mBandwidthSamples = 0;
+                mRttSamples = 0;
+            }
+            mConnected = connected;
+            mNetworkKey = networkKey;
+            mMetered = metered;
+            mTypeTier = connected ? getTypeTier(networkInfo) : FetchPolicy.TIER_GOOD;
+            policy = updatePolicy();
+        }
+        notifyListeners(connected, policy);
+    }
+
+    private void notifyListeners(final boolean connected, final FetchPolicy policy) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    notifyListeners(connected, policy);
+                }
+            });
+            return;
+        }
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onNetworkChanged(connected, policy);
+        }
+    }
+
+    /**
+     * Pick the policy for the current network and measurements, and change the timeouts
+     * of the shared client if they are different. Returns the policy.
+     */
+    private synchronized FetchPolicy updatePolicy() {
+        FetchPolicy policy = FetchPolicy.select(mTypeTier, mMetered,
+                mBandwidthSamples >= MIN_SAMPLES ? Math.round(mBandwidthKbps) : -1,
+                mRttSamples >= MIN_SAMPLES ? Math.round(mRttMillis) : -1);
+        FetchPolicy previousPolicy = mPolicy;
+        mPolicy = policy;
+        if (policy.connectTimeoutMillis != previousPolicy.connectTimeoutMillis
+                || policy.readTimeoutMillis != previousPolicy.readTimeoutMillis) {
+            HttpClient.setTimeouts(policy.connectTimeoutMillis, policy.readTimeoutMillis);
+        }
+        return policy;
+    }
+
+    /**
+     * Returns the tier expected of the type of the given network, before anything is measured.
+     */
+    private static int getTypeTier(NetworkInfo networkInfo) {
+        switch (networkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+            case ConnectivityManager.TYPE_ETHERNET:
+                return FetchPolicy.TIER_EXCELLENT;
+            case ConnectivityManager.TYPE_MOBILE:
+                break;
+            default:
+                return FetchPolicy.TIER_GOOD;
+        }
+        switch (networkInfo.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return FetchPolicy.TIER_POOR;
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+            case TelephonyManager.NETWORK_TYPE_HSDPA:
+            case TelephonyManager.NETWORK_TYPE_HSUPA:
+            case TelephonyManager.NETWORK_TYPE_HSPA:
+            case TelephonyManager.NETWORK_TYPE_EHRPD:
+                return FetchPolicy.TIER_MODERATE;
+            default:
+                // HSPA+, LTE and the networks unknown to this version
+                return FetchPolicy.TIER_GOOD;
+        }
+    }
+}
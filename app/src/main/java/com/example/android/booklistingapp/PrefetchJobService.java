@@ -0,0 +1,144 @@
+package com.example.android.booklistingapp;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.TrafficStats;
+import android.os.Build;
+import android.os.Process;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link PrefetchJobService} refreshes the results of the most recent searches in the
+ * background, so a search that is opened again is answered by the cache and the store of books.
+ *
+ * The job runs at most once a day, only while the device is charging and on an unmetered network,
+ * and all the searches are refreshed in one go, so the radio is woken up once for all of them.
+ * The bytes downloaded per day are limited by a budget. Job scheduling needs API 21, on older
+ * versions nothing is prefetched.
+ */
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PrefetchJobService extends JobService {
+
+    private static final int JOB_ID = 1;
+
+    /** Number of recent searches refreshed by a run of the job */
+    private static final int QUERY_COUNT = 5;
+
+    /** Maximum number of bytes downloaded by the job in a day */
+    private static final long DAILY_BYTE_BUDGET = 1024 * 1024;
+
+    private static final long INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /** Preferences holding the bytes downloaded by the job on the current day */
+    private static final String PREFERENCES_NAME = "prefetch";
+    private static final String PREF_DAY = "day";
+    private static final String PREF_BYTES = "bytes";
+
+    /** Token of the running request, cancelled when the job is stopped */
+    private volatile CancellationToken mCancellationToken;
+
+    private volatile boolean mStopped;
+
+    /**
+     * Schedule the job, unless it is already scheduled or the version doesn't support it.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, PrefetchJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MILLIS)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    /**
+     * Called on the main thread, the searches are refreshed on a background thread.
+     */
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        PriorityExecutor.execute(PriorityExecutor.PRIORITY_PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                // The job is finished even if the prefetch fails, or it would hold its wake lock
+                // until the system times it out
+                try {
+                    prefetch();
+                } finally {
+                    jobFinished(params, false);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped = true;
+        CancellationToken token = mCancellationToken;
+        if (token != null) {
+            token.cancel();
+        }
+        // Try again when the conditions are met next time
+        return true;
+    }
+
+    private void prefetch() {
+        SharedPreferences preferences = getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE);
+        long today = TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis());
+        long usedBytes = preferences.getLong(PREF_DAY, -1) == today ? preferences.getLong(PREF_BYTES, 0) : 0;
+
+        BookCache cache = BookCache.getInstance(this);
+        BookStore store = BookStore.getInstance(this);
+        int uid = Process.myUid();
+        // The job runs on an unmetered network, but the pages are requested with the size of the
+        // network the user usually searches on, since the size is part of the url of a page
+        int pageSize = NetworkMonitor.getInstance(this).getUsualSearchPolicy().pageSize;
+
+        for (String query : SearchSuggestions.getInstance(this).getRecentQueries(QUERY_COUNT)) {
+            if (mStopped || usedBytes >= DAILY_BYTE_BUDGET) {
+                break;
+            }
+            // Only the first page is refreshed, that's what is shown when the search is opened
+            String url = BookPager.getPageUrl(QueryUtils.buildSearchUrl(query), 0, pageSize);
+            CancellationToken token = new CancellationToken();
+            mCancellationToken = token;
+
+            long rxBytesBefore = TrafficStats.getUidRxBytes(uid);
+            List<Book> books = QueryUtils.fetchBookData(url, cache, null, token);
+            long rxBytesAfter = TrafficStats.getUidRxBytes(uid);
+            if (rxBytesBefore != TrafficStats.UNSUPPORTED && rxBytesAfter >= rxBytesBefore) {
+                usedBytes += rxBytesAfter - rxBytesBefore;
+            }
+            // Nothing is stored for a search that failed or was cancelled
+            if (books != null && !token.isCanceled()) {
+                store.putBooks(books);
+            }
+        }
+        mCancellationToken = null;
+
+        preferences.edit()
+                .putLong(PREF_DAY, today)
+                .putLong(PREF_BYTES, usedBytes)
+                .apply();
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The thread pool shared by the background work of the app: the requests of the searches and
+ * of their pages, the cover images and the prefetches. The waiting tasks are run by priority,
+ * so the page the user is waiting for is requested before the covers of the rows, and those
+ * before the results that might be needed later. Tasks of the same priority run in the order
+ * they were submitted.
+ *
+ * Tasks run on the pool must not wait for other tasks of the pool, otherwise every thread
+ * could end up waiting for a task that is queued behind it.
+ *
+ * The pool is meant for I/O: its threads block on requests, on retries and on the disk. The CPU
+ * work the UI is waiting for, like the diff of the list or sorting the books, runs on the pool
+ * of {@link android.os.AsyncTask} instead, so it isn't held up by a few slow requests.
+ */
+
+public final class PriorityExecutor {
+
+    private static final String LOG_TAG = PriorityExecutor.class.getSimpleName();
+
+    /** The search results the user is waiting for */
+    public static final int PRIORITY_SEARCH = 0;
+
+    /** The pages loaded while the user scrolls */
+    public static final int PRIORITY_PAGE = 1;
+
+    /** The cover images, the priority of the tasks submitted by Picasso */
+    public static final int PRIORITY_IMAGE = 2;
+
+    /** Results that might be needed later: the next page, the details of a book, the recent searches */
+    public static final int PRIORITY_PREFETCH = 3;
+
+    /**
+     * Number of threads of the pool. The requests to the API, and those to the cover host, share
+     * a single HTTP/2 connection each, so more threads would mostly add contention.
+     */
+    static final int THREAD_COUNT = 4;
+
+    /** How long an idle thread is kept alive */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /** Sequence number of the next task, which keeps the tasks of the same priority in order */
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BookWorker #" + mCount.incrementAndGet());
+            // Don't compete with the main thread for the CPU
+            thread.setPriority(Thread.MIN_PRIORITY + 1);
+            return thread;
+        }
+    }) {
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new PrioritizedTask<>(callable, PRIORITY_IMAGE, false);
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+            return new PrioritizedTask<>(Executors.callable(runnable, value), PRIORITY_IMAGE, false);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            // The queue can only order tasks that know their priority
+            super.execute(command instanceof PrioritizedTask ? command
+                    : new PrioritizedTask<>(Executors.callable(command, null), PRIORITY_IMAGE, true));
+        }
+    };
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link PriorityExecutor} object.
+     */
+    private PriorityExecutor() {
+    }
+
+    /**
+     * Run the given task on the pool with the given priority.
+     */
+    public static void execute(int priority, Runnable task) {
+        sExecutor.execute(new PrioritizedTask<>(Executors.callable(task, null), priority, true));
+    }
+
+    /**
+     * Run the given task on the pool with the given priority, and return its pending result.
+     * If the result is cancelled before the task has started, the task is skipped.
+     */
+    public static <T> Future<T> submit(int priority, Callable<T> task) {
+        PrioritizedTask<T> future = new PrioritizedTask<>(task, priority, false);
+        sExecutor.execute(future);
+        return future;
+    }
+
+    /**
+     * Returns an {@link Executor} running its tasks on the pool with the given priority,
+     * e.g. for an {@link android.os.AsyncTask} or an ExecutorCompletionService.
+     */
+    public static Executor getExecutor(final int priority) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                PriorityExecutor.execute(priority, task);
+            }
+        };
+    }
+
+    /**
+     * Returns the pool as an {@link ExecutorService} for libraries that need one, like Picasso.
+     * The tasks submitted to it directly run with {@link #PRIORITY_IMAGE}.
+     */
+    public static ExecutorService getExecutorService() {
+        return sExecutor;
+    }
+
+    /**
+     * A task of the pool, ordered by its priority and then by the order it was submitted in.
+     */
+    private static final class PrioritizedTask<T> extends FutureTask<T>
+            implements Comparable<PrioritizedTask<?>> {
+
+        private final int mPriority;
+
+        private final long mSequence = sSequence.getAndIncrement();
+
+        /** Whether nobody reads the result, so a failure of the task has to be logged here */
+        private final boolean mLogFailure;
+
+        PrioritizedTask(Callable<T> callable, int priority, boolean logFailure) {
+            super(callable);
+            mPriority = priority;
+            mLogFailure = logFailure;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+        @Override
+        protected void done() {
+            if (!mLogFailure || isCancelled()) {
+                return;
+            }
+            try {
+                get();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Problem running a background task", e.getCause());
+            } catch (InterruptedException | CancellationException e) {
+                // Not a failure of the task
+            }
+        }
+    }
+}
@@ -1,17 +1,78 @@
 package com.example.android.booklistingapp;
 
-import android.content.SearchRecentSuggestionsProvider;
+import android.app.SearchManager;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import java.util.List;
 
 /**
- * A (@link QueryContentProvider) object to manage the recent search queries
+ * A (@link QueryContentProvider) object to provide the suggestions of the search bar, which are
+ * looked up in the {@link SearchSuggestions} of the app while the user is typing.
  */
 
-public class QueryContentProvider extends SearchRecentSuggestionsProvider{
+public class QueryContentProvider extends ContentProvider {
 
     public final static String AUTHORITY = "com.example.android.booklistingapp.QueryContentProvider";
-    public final static int MODE = DATABASE_MODE_QUERIES;
 
-    public QueryContentProvider() {
-        setupSuggestions(AUTHORITY, MODE);
+    /** Maximum number of suggestions shown below the search bar */
+    private static final int SUGGESTION_COUNT = 8;
+
+    private static final String[] COLUMNS = {
+            BaseColumns._ID,
+            SearchManager.SUGGEST_COLUMN_ICON_1,
+            SearchManager.SUGGEST_COLUMN_TEXT_1,
+            SearchManager.SUGGEST_COLUMN_QUERY
+    };
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    /**
+     * Returns the suggestions for the text typed so far, which is passed as the only selection
+     * argument, see res/xml/searchable.xml. Past queries are shown with the history icon.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        String text = selectionArgs != null && selectionArgs.length > 0 && selectionArgs[0] != null
+                ? selectionArgs[0] : "";
+        List<SuggestionIndex.Suggestion> suggestions =
+                SearchSuggestions.getInstance(getContext()).suggest(text, SUGGESTION_COUNT);
+
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, suggestions.size());
+        long id = 0;
+        for (SuggestionIndex.Suggestion suggestion : suggestions) {
+            int icon = (suggestion.kinds & SuggestionIndex.KIND_QUERY) != 0
+                    ? android.R.drawable.ic_menu_recent_history : android.R.drawable.ic_menu_search;
+            cursor.addRow(new Object[]{id++, icon, suggestion.text, suggestion.text});
+        }
+        return cursor;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return SearchManager.SUGGEST_MIME_TYPE;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("The suggestions are read-only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The suggestions are read-only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The suggestions are read-only");
     }
 }
@@ -1,22 +1,20 @@
 package com.example.android.booklistingapp;
 
-import android.text.TextUtils;
+import android.net.Uri;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
 
 /**
  * Helper methods related to requesting and receiving book data from Google Play Books API.
@@ -29,6 +27,21 @@ public final class QueryUtils {
      */
     public static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /**
+     * The url of the volumes collection of the Google Books API
+     */
+    private static final String VOLUMES_URL = "https://www.googleapis.com/books/v1/volumes";
+
+    /**
+     * The shortest previous query whose results are reused by {@link #findPrefixResults}
+     */
+    private static final int MIN_PREFIX_LENGTH = 3;
+
+    /**
+     * The requests that are being made at the moment, by their cache key
+     */
+    private static final Map<String, InFlightRequest> sInFlightRequests = new HashMap<>();
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -37,217 +50,406 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /**
+     * Returns the url of the volumes request searching for the given query. Only the fields
+     * read by the {@link BookJsonParser} are requested, the paging parameters are added
+     * by the {@link BookPager}.
+     */
+    public static String buildSearchUrl(String query) {
+        return Uri.parse(VOLUMES_URL).buildUpon()
+                .appendQueryParameter("q", query.trim())
+                .appendQueryParameter("printType", "books")
+                .appendQueryParameter("fields", BookJsonParser.FIELDS)
+                .build()
+                .toString();
+    }
+
     /**
      * Query the Google Play Books dataset and return a list of {@link Book} objects.
      */
     public static List<Book> fetchBookData(String requestUrl){
+        return fetchBookData(requestUrl, null, null, null);
+    }
 
-        // Create url object
-        URL url = createURL(requestUrl);
+    /**
+     * Query the Google Play Books dataset and return a list of {@link Book} objects.
+     *
+     * If the results of the query are in the given cache and they are still fresh, no request is
+     * made. Expired results are revalidated with their ETag, and they are also returned if the
+     * request fails, so previous searches keep working without a connection.
+     *
+     * If the same url is already being requested by another thread, no new request is made, and
+     * the results of the running request are returned instead. The given listener is notified of
+     * every book as soon as it has been parsed from the response, while the rest of the response
+     * is still being downloaded, but only if this call made the request itself.
+     *
+     * @param token can be used to give up on the request, in which case null is returned
+     */
+    public static List<Book> fetchBookData(String requestUrl, BookCache cache,
+                                           BookJsonParser.OnBookParsedListener listener,
+                                           CancellationToken token){
+
+        // Serve the results from the cache if we can
+        BookCache.Entry cached = null;
+        if (cache != null) {
+            cached = cache.get(requestUrl);
+            if (cached != null && cached.isFresh()) {
+                Metrics.increment(Metrics.CACHE_HIT, 1);
+                return cached.books;
+            }
+        }
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
-        try {
-            jsonResponse = makeHttpRequest(url);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem making the HTTP request",e);
+        // A caller that already gave up must not register a request nobody is going to make
+        if (token != null && token.isCanceled()) {
+            return null;
         }
 
-        // Extract relevant fields from the JSON response and create a list of {@link Book}
-        // objects
-        List<Book> books = extractFeatureFromJson(jsonResponse);
+        // Join the request of the url if it is already running, or start a new one
+        String key = BookCache.normalizeKey(requestUrl);
+        InFlightRequest request;
+        boolean isNewRequest = false;
+        synchronized (sInFlightRequests) {
+            request = sInFlightRequests.get(key);
+            if (request == null) {
+                request = new InFlightRequest();
+                sInFlightRequests.put(key, request);
+                isNewRequest = true;
+            }
+            request.join();
+        }
+        if (token != null && !token.attach(request)) {
+            request.release();
+            if (isNewRequest) {
+                // The token was cancelled meanwhile, so the request is never made. Let go of
+                // the callers that joined it, instead of leaving them waiting for it forever.
+                synchronized (sInFlightRequests) {
+                    sInFlightRequests.remove(key);
+                }
+                request.finish(null);
+            }
+            return null;
+        }
+
+        List<Book> books = null;
+        if (isNewRequest) {
+            // Perform HTTP request to the URL and parse the books straight from the JSON response
+            try {
+                books = makeHttpRequest(requestUrl, cache, cached, listener, request);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem making the HTTP request",e);
+            } finally {
+                synchronized (sInFlightRequests) {
+                    sInFlightRequests.remove(key);
+                }
+                request.finish(books);
+            }
+        } else {
+            books = request.await(token);
+        }
+
+        if (token != null && token.isCanceled()) {
+            return null;
+        }
+
+        // If the request failed, fall back to the expired results
+        if (books == null && cached != null) {
+            Metrics.increment(Metrics.CACHE_STALE, 1);
+            books = cached.books;
+        }
 
         // Return the {@link List<Book>}
         return books;
     }
 
     /**
-     * Returns a new URL object from the given string URL
+     * Returns the url of the request for the details of the volume with the given id.
+     * Only the fields read by the {@link BookDetailsParser} are requested.
      */
-    private static URL createURL(String stringUrl) {
-        URL url = null;
+    public static String buildDetailsUrl(String volumeId) {
+        return Uri.parse(VOLUMES_URL).buildUpon()
+                .appendPath(volumeId)
+                .appendQueryParameter("fields", BookDetailsParser.FIELDS)
+                .build()
+                .toString();
+    }
 
+    /**
+     * Request the details of the volume with the given id from the Google Play Books dataset,
+     * or return null if they could not be loaded. The details are not cached here, see
+     * {@link BookDetailsCache}.
+     *
+     * @param token can be used to give up on the request, in which case null is returned
+     */
+    public static BookDetails fetchBookDetails(String volumeId, CancellationToken token) {
+        HttpUrl url = createURL(buildDetailsUrl(volumeId));
+        if (url == null) {
+            return null;
+        }
+
+        InFlightRequest request = new InFlightRequest();
+        request.join();
+        if (token != null && !token.attach(request)) {
+            request.release();
+            return null;
+        }
+
+        BookDetails details = null;
+        Response response = null;
         try {
-            url = new URL(stringUrl);
-        } catch (MalformedURLException e) {
-            Log.e(LOG_TAG, "Error with creating url: ", e);
+            response = RequestExecutor.execute(HttpClient.get(), new Request.Builder().url(url).get().build(),
+                    request);
+            if (response.code() == HttpURLConnection.HTTP_OK) {
+                long parseStart = Metrics.start();
+                details = BookDetailsParser.parse(response.body().byteStream());
+                Metrics.recordSince(Metrics.PARSE_DETAILS, parseStart);
+            } else {
+                Log.e(LOG_TAG, "Error response code" + response.code() + url);
+            }
+        } catch (IOException e) {
+            if (!request.isCanceled()) {
+                Log.e(LOG_TAG, "Problem retrieving the book details JSON response", e);
+            }
+        } catch (IllegalStateException e) {
+            Log.e(LOG_TAG, "Problem parsing the book details JSON response", e);
+        } catch (NumberFormatException e) {
+            // JsonReader throws a NumberFormatException if a number of the response is malformed
+            Log.e(LOG_TAG, "Problem parsing a number of the book details JSON response", e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+            request.finish(null);
+        }
+
+        if (token != null && token.isCanceled()) {
+            return null;
+        }
+        return details;
+    }
+
+    /**
+     * Returns the books of the most specific, previously searched query that the given query
+     * starts with (e.g. "harry p" for "harry pot"), which match every word of the given query.
+     * Only the results held in memory are used, so it's cheap enough to call on the main thread.
+     * Returns null if no such query is cached.
+     *
+     * @param pageSize the size of the first page of the searches, which is part of their url
+     */
+    public static List<Book> findPrefixResults(BookCache cache, String query, int pageSize) {
+        query = query.trim();
+        String[] words = query.toLowerCase(Locale.getDefault()).split("\\s+");
+        for (int length = query.length() - 1; length >= MIN_PREFIX_LENGTH; length--) {
+            String prefixUrl = BookPager.getPageUrl(buildSearchUrl(query.substring(0, length)), 0, pageSize);
+            BookCache.Entry entry = cache.peek(prefixUrl);
+            if (entry == null) {
+                continue;
+            }
+            List<Book> books = new ArrayList<>();
+            for (Book book : entry.books) {
+                if (matchesAllWords(book, words)) {
+                    books.add(book);
+                }
+            }
+            return books;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the title or the authors of the book contain every one of the given words.
+     */
+    private static boolean matchesAllWords(Book book, String[] words) {
+        String text = (book.getTitle() + " " + book.getAuthor()).toLowerCase(Locale.getDefault());
+        for (String word : words) {
+            if (!text.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a new HttpUrl object from the given string URL, or null if the URL is not valid
+     */
+    private static HttpUrl createURL(String stringUrl) {
+        HttpUrl url = HttpUrl.parse(stringUrl);
+        if (url == null) {
+            Log.e(LOG_TAG, "Error with creating url: " + stringUrl);
         }
         return url;
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and return the list of {@link Book} objects
+     * parsed from the response. If there is a cached entry for the URL, the request is made
+     * conditional on its ETag, and the cached books are returned if they are still valid.
+     * The parsed books are stored in the cache, unless the response forbids it.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    private static List<Book> makeHttpRequest(String requestUrl, BookCache cache, BookCache.Entry cached,
+                                              BookJsonParser.OnBookParsedListener listener,
+                                              InFlightRequest request)
+            throws IOException {
+        List<Book> books = null;
+
+        // Create url object
+        HttpUrl url = createURL(requestUrl);
 
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return books;
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        Request.Builder requestBuilder = new Request.Builder().url(url).get();
+        if (cached != null && cached.etag != null) {
+            requestBuilder.header("If-None-Match", cached.etag);
+        }
+
+        // The connection is returned to the shared pool once the response body is closed
+        Response response = null;
 
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            // Failed attempts are retried, and slow ones hedged, before we give up
+            response = RequestExecutor.execute(HttpClient.get(), requestBuilder.build(), request);
+
+            int responseCode = response.code();
+            long ttlMillis = BookCache.getTtlMillis(response.header("Cache-Control"));
 
             // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            // then parse the books while the response body is being read.
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                Metrics.increment(Metrics.CACHE_MISS, 1);
+                long parseStart = Metrics.start();
+                books = BookJsonParser.parse(response.body().byteStream(), listener);
+                Metrics.recordSince(Metrics.PARSE, parseStart);
+                if (cache != null && books != null && ttlMillis >= 0) {
+                    cache.put(requestUrl, books, response.header("ETag"), ttlMillis);
+                }
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // The cached books are still valid
+                Metrics.increment(Metrics.CACHE_REVALIDATED, 1);
+                books = cached.books;
+                if (cache != null && ttlMillis >= 0) {
+                    cache.refresh(requestUrl, cached, ttlMillis);
+                }
             } else {
-                Log.e(LOG_TAG, "Error response code" + urlConnection.getResponseCode()+url);
+                Log.e(LOG_TAG, "Error response code" + responseCode + url);
             }
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the book JSON response", e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            // Cancelled calls fail with an IOException as well, but they are not errors
+            if (!request.isCanceled()) {
+                Log.e(LOG_TAG, "Problem retrieving the book JSON response", e);
             }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies that an IOException
-                // could be thrown.
-                inputStream.close();
+        } catch (IllegalStateException e) {
+            // JsonReader throws an IllegalStateException if the response is not formatted
+            // the way we expect it.
+            Log.e(LOG_TAG, "Problem parsing the book JSON results", e);
+        } finally {
+            if (response != null) {
+                response.close();
             }
         }
-        return jsonResponse;
+        return books;
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * A request that is being made, shared by every caller of {@link #fetchBookData} asking
+     * for the same url at the same time.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
+    static final class InFlightRequest {
 
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
+        /** Number of callers waiting for the request */
+        private int mWaiters;
 
-            String line = bufferedReader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = bufferedReader.readLine();
-            }
+        /** The HTTP calls made for the request so far, retries and hedges included */
+        private final List<Call> mCalls = new ArrayList<>();
+
+        /** Whether every caller has given up on the request */
+        private boolean mCanceled;
+
+        private boolean mDone;
+
+        private List<Book> mBooks;
+
+        synchronized void join() {
+            mWaiters++;
         }
-        return output.toString();
-    }
 
-    /**
-     * Return a list of {@link Book} objects that has been built up from
-     * parsing the given JSON response.
-     */
-    private static List<Book> extractFeatureFromJson(String bookJSON){
+        /**
+         * Called by a caller giving up on the request. The HTTP call is cancelled
+         * if nobody is waiting for it anymore.
+         */
+        void release() {
+            List<Call> calls = null;
+            synchronized (this) {
+                mWaiters--;
+                notifyAll();
+                if (mWaiters <= 0 && !mDone) {
+                    mCanceled = true;
+                    calls = new ArrayList<>(mCalls);
+                }
+            }
+            if (calls != null) {
+                for (Call call : calls) {
+                    call.cancel();
+                }
+            }
+        }
 
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(bookJSON)){
-            return null;
+        synchronized boolean isCanceled() {
+            return mCanceled;
         }
 
-        // Create an empty ArrayList that we can start adding earthquakes to
-        List<Book> books = new ArrayList<>();
+        /** Remember a call made for the request, so it's cancelled along with the request */
+        void addCall(Call call) {
+            boolean canceled;
+            synchronized (this) {
+                mCalls.add(call);
+                canceled = mCanceled;
+            }
+            if (canceled) {
+                call.cancel();
+            }
+        }
 
-        // Try to parse the JSON response string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        try {
-            // Create a JSONObject from the bookJSON string
-            JSONObject rootJsonObject = new JSONObject(bookJSON);
-
-            // Extract the JSONArray associated with the key called "items",
-            // which represents a list of features (or books)
-            JSONArray bookArray = rootJsonObject.optJSONArray("items");
-
-            if (bookArray != null) {
-
-                // For each book in the bookArray, create a {@link Book} object
-                for (int i = 0; i < bookArray.length(); i++) {
-
-                    // Get a single book at position i within the list of books
-                    JSONObject currentBook = bookArray.getJSONObject(i);
-
-                    // For a given book, extract the JSONObject associated with the
-                    // key called "volumeInfo", which represents a list of key properties
-                    // for that book.
-                    JSONObject volumeInfo = currentBook.getJSONObject("volumeInfo");
-
-                    // Extract the value for the key called "title"
-                    String title = volumeInfo.getString("title");
-
-                    // For a given book, extract the JSONObject associated with the
-                    // key called "authors"
-                    JSONArray authorsArray = volumeInfo.optJSONArray("authors");
-                    String bookAuthors;
-                    if (authorsArray != null) {
-                        StringBuilder authors = new StringBuilder();
-                        for (int nrOfAuthors = 0; nrOfAuthors < authorsArray.length(); nrOfAuthors++) {
-                            authors.append(", ").append(authorsArray.getString(nrOfAuthors));
-                        }
-                        bookAuthors = authors.toString().replaceFirst(",", "").replace(";", "").trim();
-                    } else {
-                        bookAuthors = "";
-                    }
-
-                    // Extract the value for the key called "canonicalVolumeLink"
-                    String bookUrl = volumeInfo.getString("canonicalVolumeLink");
-
-                    // Extract the value for the key called "averageRating"
-                    double rating = volumeInfo.optDouble("averageRating");
-                    if (Double.isNaN(rating)) {
-                        rating = 0.0;
-                    }
-
-                    // Extract the JSONObject associated with the key called "imageLinks"
-                    JSONObject imageLinksObject = volumeInfo.optJSONObject("imageLinks");
-                    String coverImageUrl;
-                    if (imageLinksObject != null) {
-                        //Extract the value for the key called "thumbnail"
-                        coverImageUrl = imageLinksObject.getString("thumbnail").replace("&edge=curl", "").replace("&zoom=1", "&zoom=2");
-                    } else {
-                        coverImageUrl = null;
-                    }
-
-                    // For a given book extract the JSONObject associated with the
-                    // key called "saleInfo", which represents a list of sale properties
-                    // for that book.
-                    JSONObject saleInfo = currentBook.getJSONObject("saleInfo");
-                    // Extract the saleability information for the given book,
-                    // and find out if the book can be bought or not. If the book is for sale,
-                    // find the price for it, otherwise the price should be equal to "No price found".
-                    double priceAmount;
-                    String currencyCode;
-                    String saleability = saleInfo.getString("saleability");
-                    if (saleability.equals("FOR_SALE")) {
-                        JSONObject retailPrice = saleInfo.getJSONObject("retailPrice");
-                        priceAmount = retailPrice.getDouble("amount");
-                        currencyCode = retailPrice.getString("currencyCode");
-                    } else {
-                        priceAmount = 0;
-                        currencyCode = "";
-                    }
-
-                    // Create a new {@link Book} object with the title, author, price,
-                    // average rating, cover image url and book url from the JSON response.
-                    Book book = new Book(coverImageUrl, title, bookAuthors, priceAmount, currencyCode, rating, bookUrl);
-
-                    // Add the new {@link Book} to the list of books.
-                    books.add(book);
+        /**
+         * Wait for the given time, e.g. before retrying the request. Returns false
+         * as soon as the request is cancelled.
+         */
+        synchronized boolean sleep(long millis) {
+            long deadline = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (!mCanceled && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
                 }
-            } else return null;
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e(LOG_TAG, "Problem parsing the book JSON results", e);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return !mCanceled;
         }
 
-        // Return the list of books
-        return books;
+        synchronized void finish(List<Book> books) {
+            mBooks = books;
+            mDone = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait for the request to finish and return its result,
+         * or return null if the given token is cancelled first.
+         */
+        synchronized List<Book> await(CancellationToken token) {
+            while (!mDone && (token == null || !token.isCanceled())) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return mDone ? mBooks : null;
+        }
     }
 }
@@ -0,0 +1,288 @@
+package com.example.android.booklistingapp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Makes the requests to the API resilient to a flaky network and to an overloaded server.
+ *
+ * Requests that fail, or that are answered with 429 or a 5xx code, are retried after an
+ * exponentially growing, randomized delay, or after the delay the server asks for with a
+ * Retry-After header. A {@link CircuitBreaker} rejects the requests while the server keeps
+ * failing. Once enough requests have been timed, a request that takes longer than 90% of them
+ * to be answered is hedged: a second, identical request is made, and the first answer wins.
+ */
+
+final class RequestExecutor {
+
+    /** Maximum number of attempts of a request, including the first one */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** Delay before the first retry, doubled for every further retry */
+    private static final long BASE_BACKOFF_MILLIS = 500;
+
+    /** Longest delay before a retry, also caps the delays asked for by the server */
+    private static final long MAX_BACKOFF_MILLIS = 8000;
+
+    /** Percentile of the time to the response headers after which a request is hedged */
+    private static final double HEDGE_PERCENTILE = 90;
+
+    /** Number of timed requests needed before the requests are hedged */
+    private static final long MIN_HEDGE_SAMPLES = 20;
+
+    /** Failed attempts in a row that open the circuit, and for how long it stays open */
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final CircuitBreaker sCircuitBreaker =
+            new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS);
+
+    private static final Random sRandom = new Random();
+
+    /**
+     * Create a private constructor because no one should ever create a {@link RequestExecutor} object.
+     */
+    private RequestExecutor() {
+    }
+
+    /**
+     * Make the given request, retrying and hedging it as needed, and return its response.
+     * The response of the last attempt is returned even if it's an error.
+     *
+     * @param inFlight the request the calls are made for, which cancels them when it's given up on
+     * @throws IOException if the last attempt failed, the circuit is open, or the request was cancelled
+     */
+    static Response execute(OkHttpClient client, Request request, QueryUtils.InFlightRequest inFlight)
+            throws IOException {
+        return execute(client, request, inFlight, sCircuitBreaker);
+    }
+
+    /**
+     * Make the given request like {@link #execute(OkHttpClient, Request, QueryUtils.InFlightRequest)},
+     * with the given circuit breaker instead of the one shared by the app.
+     */
+    static Response execute(OkHttpClient client, Request request, QueryUtils.InFlightRequest inFlight,
+                            CircuitBreaker circuitBreaker) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                Metrics.increment(Metrics.CIRCUIT_OPEN, 1);
+                throw new IOException("The requests are paused after repeated failures");
+            }
+
+            Response response;
+            try {
+                response = executeHedged(client, request, inFlight);
+            } catch (IOException e) {
+                if (inFlight.isCanceled()) {
+                    circuitBreaker.onCanceled();
+                    throw e;
+                }
+                circuitBreaker.onFailure();
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                backOff(attempt, -1, inFlight);
+                continue;
+            }
+
+            if (!isRetryable(response.code())) {
+                circuitBreaker.onSuccess();
+                return response;
+            }
+            circuitBreaker.onFailure();
+            if (attempt >= MAX_ATTEMPTS) {
+                return response;
+            }
+            long retryAfterMillis = getRetryAfterMillis(response);
+            response.close();
+            backOff(attempt, retryAfterMillis, inFlight);
+        }
+    }
+
+    /** Returns true if a response with the given code is worth retrying */
+    private static boolean isRetryable(int code) {
+        return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Wait before the next attempt: for the given delay asked for by the server, or else for a
+     * random time up to the exponential backoff of the attempt, so the clients that failed
+     * together don't retry together.
+     */
+    private static void backOff(int attempt, long retryAfterMillis, QueryUtils.InFlightRequest inFlight)
+            throws IOException {
+        long delay;
+        if (retryAfterMillis >= 0) {
+            delay = Math.min(retryAfterMillis, MAX_BACKOFF_MILLIS);
+        } else {
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+            delay = (long) (sRandom.nextDouble() * backoff);
+        }
+        Metrics.increment(Metrics.RETRIES, 1);
+        if (!inFlight.sleep(delay)) {
+            throw new InterruptedIOException("The request was cancelled while waiting to be retried");
+        }
+    }
+
+    /**
+     * Returns the delay asked for by the Retry-After header of the response, in seconds or
+     * as a date, or -1 if there is no valid header.
+     */
+    private static long getRetryAfterMillis(Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            Date date = response.headers().getDate("Retry-After");
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Make a single attempt of the request. If it hasn't been answered within the hedging delay,
+     * a second call is made, and the response that arrives first is returned.
+     */
+    private static Response executeHedged(OkHttpClient client, Request request,
+                                          QueryUtils.InFlightRequest inFlight) throws IOException {
+        long hedgeDelayMicros = Metrics.getPercentile(
+                Metrics.API_PREFIX + Metrics.TTFB, HEDGE_PERCENTILE, MIN_HEDGE_SAMPLES);
+        if (hedgeDelayMicros < 0) {
+            Call call = client.newCall(request);
+            inFlight.addCall(call);
+            return call.execute();
+        }
+
+        HedgedCalls calls = new HedgedCalls();
+        calls.start(client.newCall(request), inFlight);
+        Response response = calls.await(TimeUnit.MICROSECONDS.toMillis(hedgeDelayMicros) + 1);
+        if (response == null) {
+            if (!calls.isDone()) {
+                Metrics.increment(Metrics.HEDGES, 1);
+                calls.start(client.newCall(request), inFlight);
+            }
+            // The first call may also have been answered since the deadline, its response is
+            // taken instead of being left unclosed
+            response = calls.await(0);
+        }
+        if (response == null) {
+            throw calls.getFailure();
+        }
+        return response;
+    }
+
+    /**
+     * The calls of a hedged attempt. The first response is kept, the calls still running
+     * are cancelled, and the responses arriving later are closed.
+     */
+    private static final class HedgedCalls implements Callback {
+
+        private final List<Call> mCalls = new ArrayList<>();
+
+        private Response mResponse;
+
+        /** The call whose response was kept */
+        private Call mResponseCall;
+
+        private int mFailures;
+
+        private IOException mFailure;
+
+        void start(Call call, QueryUtils.InFlightRequest inFlight) {
+            synchronized (this) {
+                mCalls.add(call);
+            }
+            inFlight.addCall(call);
+            call.enqueue(this);
+        }
+
+        /** Returns true if a call has been answered, or all of them have failed */
+        synchronized boolean isDone() {
+            return mResponse != null || mFailures == mCalls.size();
+        }
+
+        synchronized IOException getFailure() {
+            return mFailure != null ? mFailure : new IOException("The request failed");
+        }
+
+        /**
+         * Wait for the first response for up to the given time, or for ever if it's 0.
+         * Returns null if there is no response by then, or all the calls have failed.
+         */
+        Response await(long timeoutMillis) throws InterruptedIOException {
+            Response response;
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                while (!isDone()) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (timeoutMillis > 0 && remaining <= 0) {
+                        return null;
+                    }
+                    try {
+                        wait(timeoutMillis > 0 ? remaining : 0);
+                    } catch (InterruptedException e) {
+                        for (Call call : mCalls) {
+                            call.cancel();
+                        }
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the response");
+                    }
+                }
+                response = mResponse;
+            }
+            if (response != null) {
+                cancelOthers();
+            }
+            return response;
+        }
+
+        private void cancelOthers() {
+            List<Call> others = new ArrayList<>();
+            synchronized (this) {
+                for (Call call : mCalls) {
+                    if (call != mResponseCall) {
+                        others.add(call);
+                    }
+                }
+            }
+            for (Call call : others) {
+                call.cancel();
+            }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            synchronized (this) {
+                if (mResponse == null) {
+                    mResponse = response;
+                    mResponseCall = call;
+                    notifyAll();
+                    return;
+                }
+            }
+            response.close();
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            synchronized (this) {
+                mFailures++;
+                mFailure = e;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ResultSnapshot} is the query and the first books of the last search shown by the app,
+ * kept in a small file. It is read on the main thread while the app starts, so the list shows
+ * the last results on its first frame, instead of an empty screen until the search is loaded.
+ * Only a screen or two of books is kept, so reading it takes about a millisecond.
+ */
+
+public final class ResultSnapshot {
+
+    private static final String LOG_TAG = ResultSnapshot.class.getSimpleName();
+
+    /** Name of the file of the snapshot, in the app's files directory */
+    private static final String FILE_NAME = "last_results.bin";
+
+    private static final int FILE_FORMAT_VERSION = 1;
+
+    /** Maximum number of books kept in the snapshot */
+    private static final int MAX_BOOK_COUNT = 40;
+
+    private final String mQuery;
+
+    private final List<Book> mBooks;
+
+    private ResultSnapshot(String query, List<Book> books) {
+        mQuery = query;
+        mBooks = books;
+    }
+
+    /** Returns the query of the search */
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /** Returns the first books of the search */
+    public List<Book> getBooks() {
+        return mBooks;
+    }
+
+    /**
+     * Returns the snapshot written last, or null if there is none.
+     * This is called on the main thread, the file is small.
+     */
+    public static ResultSnapshot read(Context context) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_FORMAT_VERSION) {
+                return null;
+            }
+            String query = in.readUTF();
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                return null;
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            List<Book> books = BookCodec.decode(data);
+            if (books.isEmpty()) {
+                return null;
+            }
+            return new ResultSnapshot(query, BookTable.of(books));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Replace the snapshot with the first books of the given search, in the background.
+     */
+    public static void write(Context context, final String query, List<Book> books) {
+        if (query == null || books == null || books.isEmpty()) {
+            return;
+        }
+        final File file = getFile(context);
+        final List<Book> firstBooks = new ArrayList<>(books.subList(0, Math.min(books.size(), MAX_BOOK_COUNT)));
+        PriorityExecutor.execute(PriorityExecutor.PRIORITY_PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                writeFile(file, query, firstBooks);
+            }
+        });
+    }
+
+    /**
+     * Write the snapshot into a temporary file first, and replace the file with it,
+     * so a snapshot is never read half written.
+     */
+    private static synchronized void writeFile(File file, String query, List<Book> books) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_FORMAT_VERSION);
+            out.writeUTF(query);
+            byte[] data = BookCodec.encode(books);
+            out.writeInt(data.length);
+            out.write(data);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Problem replacing the snapshot file");
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the snapshot", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem closing the snapshot file", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Holds the {@link SuggestionIndex} of the app, which suggests past queries and the titles and
+ * authors of the loaded books while the user types a search. The index is read from its file the
+ * first time it's needed, and written back in the background a while after it has changed.
+ */
+
+public final class SearchSuggestions {
+
+    private static final String LOG_TAG = SearchSuggestions.class.getSimpleName();
+
+    /** Name of the file of the index, in the app's files directory */
+    private static final String FILE_NAME = "suggestions.bin";
+
+    /** The database of the search history kept by the SearchRecentSuggestionsProvider before */
+    private static final String LEGACY_DATABASE_NAME = "suggestions.db";
+
+    /** Maximum number of texts kept, the ones with the lowest weights are dropped first */
+    private static final int MAX_SIZE = 50000;
+
+    private static SearchSuggestions sInstance;
+
+    private final Context mContext;
+
+    /** The index, or null until it is first needed */
+    private SuggestionIndex mIndex;
+
+    /** Whether writing the index is scheduled, so the changes made meanwhile are written together */
+    private boolean mSaveScheduled;
+
+    /**
+     * Returns the {@link SearchSuggestions} shared by the whole app.
+     */
+    public static synchronized SearchSuggestions getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SearchSuggestions(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SearchSuggestions(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Read the index in the background, so it's ready when the user starts typing.
+     */
+    public void warmUp() {
+        PriorityExecutor.execute(PriorityExecutor.PRIORITY_PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                getIndex();
+            }
+        });
+    }
+
+    /**
+     * Returns at most the given number of suggestions for the given text, the best first.
+     * Must not be called on the main thread, the index may have to be read first.
+     */
+    public List<SuggestionIndex.Suggestion> suggest(String text, int limit) {
+        SuggestionIndex index = getIndex();
+        long start = Metrics.start();
+        List<SuggestionIndex.Suggestion> suggestions = index.suggest(text, limit, System.currentTimeMillis());
+        Metrics.recordSince(Metrics.SUGGEST, start);
+        return suggestions;
+    }
+
+    /**
+     * Returns the most recent queries, the latest first.
+     * Must not be called on the main thread, the index may have to be read first.
+     */
+    public List<String> getRecentQueries(int limit) {
+        return getIndex().getRecent(SuggestionIndex.KIND_QUERY, limit);
+    }
+
+    /**
+     * Remember the given query, which was searched for by the user.
+     */
+    public void saveQuery(final String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return;
+        }
+        final long time = System.currentTimeMillis();
+        PriorityExecutor.execute(PriorityExecutor.PRIORITY_PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                getIndex().add(query, SuggestionIndex.KIND_QUERY, time);
+                scheduleSave();
+            }
+        });
+    }
+
+    /**
+     * Remember the titles and the authors of the given books, which were shown to the user.
+     * Must not be called on the main thread, the index may have to be read first.
+     */
+    public void addBooks(List<Book> books) {
+        if (books == null || books.isEmpty()) {
+            return;
+        }
+        SuggestionIndex index = getIndex();
+        long time = System.currentTimeMillis();
+        for (Book book : books) {
+            index.add(book.getTitle(), SuggestionIndex.KIND_TITLE, time);
+            if (book.getAuthor() != null) {
+                for (String author : book.getAuthor().split(",")) {
+                    index.add(author, SuggestionIndex.KIND_AUTHOR, time);
+                }
+            }
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Forget the past queries. The titles and the authors of the books are kept.
+     */
+    public void clearHistory() {
+        PriorityExecutor.execute(PriorityExecutor.PRIORITY_PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                getIndex().removeKind(SuggestionIndex.KIND_QUERY);
+                scheduleSave();
+            }
+        });
+    }
+
+    /**
+     * Returns the index, reading it from its file the first time.
+     */
+    private synchronized SuggestionIndex getIndex() {
+        if (mIndex != null) {
+            return mIndex;
+        }
+        File file = new File(mContext.getFilesDir(), FILE_NAME);
+        if (file.exists()) {
+            try {
+                mIndex = SuggestionIndex.fromByteArray(readFile(file));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem reading the suggestions", e);
+            }
+        }
+        if (mIndex == null) {
+            mIndex = new SuggestionIndex();
+            importLegacyHistory(mIndex);
+        }
+        return mIndex;
+    }
+
+    /**
+     * Add the queries of the search history kept in the database of the SearchRecentSuggestionsProvider
+     * by the previous versions of the app, and delete the database.
+     */
+    private void importLegacyHistory(SuggestionIndex index) {
+        File database = mContext.getDatabasePath(LEGACY_DATABASE_NAME);
+        if (!database.exists()) {
+            return;
+        }
+        SQLiteDatabase db = null;
+        Cursor cursor = null;
+        try {
+            db = SQLiteDatabase.openDatabase(database.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            cursor = db.query("suggestions", new String[]{"query", "date"}, null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                index.add(cursor.getString(0), SuggestionIndex.KIND_QUERY, cursor.getLong(1));
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem importing the search history", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (db != null) {
+                db.close();
+            }
+        }
+        mContext.deleteDatabase(LEGACY_DATABASE_NAME);
+        scheduleSave();
+    }
+
+    /**
+     * Write the index in the background, together with the other changes made until then.
+     */
+    private void scheduleSave() {
+        synchronized (this) {
+            if (mSaveScheduled) {
+                return;
+            }
+            mSaveScheduled = true;
+        }
+        PriorityExecutor.execute(PriorityExecutor.PRIORITY_PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SearchSuggestions.this) {
+                    mSaveScheduled = false;
+                }
+                save();
+            }
+        });
+    }
+
+    /**
+     * Write the index into a temporary file first, and replace the file of the index with it,
+     * so a crash while writing doesn't lose the index.
+     */
+    private void save() {
+        SuggestionIndex index = getIndex();
+        index.trim(MAX_SIZE, System.currentTimeMillis());
+        byte[] data = index.toByteArray();
+        File file = new File(mContext.getFilesDir(), FILE_NAME);
+        File tempFile = new File(mContext.getFilesDir(), FILE_NAME + ".tmp");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(tempFile);
+            output.write(data);
+            output.getFD().sync();
+            output.close();
+            output = null;
+            if (!tempFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Problem replacing the suggestions file");
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the suggestions", e);
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the suggestions file", e);
+                }
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("The suggestions file is too large: " + length);
+        }
+        byte[] data = new byte[(int) length];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int count = input.read(data, read, data.length - read);
+                if (count < 0) {
+                    throw new IOException("The suggestions file is truncated");
+                }
+                read += count;
+            }
+        } finally {
+            input.close();
+        }
+        return data;
+    }
+}
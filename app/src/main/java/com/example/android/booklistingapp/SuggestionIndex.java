@@ -0,0 +1,560 @@
+package com.example.android.booklistingapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link SuggestionIndex} suggests the texts starting with what the user has typed so far,
+ * picked from the past queries and from the titles and authors of the books that were loaded.
+ * Every text is weighted by how often and how recently it was used, and the past queries count
+ * more than the books.
+ *
+ * The texts are kept lowercased and without accents in a sorted array, which is a trie in all but
+ * name: the texts sharing a prefix are next to each other, and the range of them is found with a
+ * binary search. If the prefix doesn't match enough texts, the texts within one or two typos of
+ * it are looked for as well, by walking the array like a trie and computing the edit distance of
+ * every prefix only once for all the texts sharing it. Branches that can't get within the allowed
+ * number of typos anymore are skipped with a binary search.
+ *
+ * The index is written and read in a compact form, where every text only stores the part that
+ * differs from the text before it. This class doesn't depend on the Android framework, so it
+ * can be benchmarked on the JVM.
+ */
+
+final class SuggestionIndex {
+
+    /** Kinds of the texts, a text can be of several kinds at once */
+    static final int KIND_QUERY = 1;
+    static final int KIND_TITLE = 2;
+    static final int KIND_AUTHOR = 4;
+
+    /** Version of the written form, data written with another version is rejected */
+    static final int VERSION = 1;
+
+    /** How much more a past query weighs than a title or an author */
+    private static final double QUERY_WEIGHT = 4;
+
+    /** Number of days after which the weight of a text is halved, unless it is used again */
+    private static final double HALF_LIFE_DAYS = 30;
+
+    /** The factor the weight of a text is multiplied by for every typo */
+    private static final double TYPO_PENALTY = 0.25;
+
+    /** The shortest prefix that is matched with one typo, and with two typos */
+    private static final int ONE_TYPO_LENGTH = 4;
+    private static final int TWO_TYPOS_LENGTH = 8;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private int mSize;
+
+    /** The normalized texts, sorted */
+    private String[] mKeys = new String[64];
+
+    /** The texts as they are shown, the latest spelling of a query */
+    private String[] mTexts = new String[64];
+
+    /** How many times every text was used */
+    private int[] mCounts = new int[64];
+
+    /** When every text was used last, in minutes since the epoch */
+    private int[] mLastUsed = new int[64];
+
+    /** The KIND_ flags of every text */
+    private byte[] mKinds = new byte[64];
+
+    /**
+     * A suggested text.
+     */
+    static final class Suggestion {
+
+        final String text;
+
+        /** The KIND_ flags of the text */
+        final int kinds;
+
+        final double score;
+
+        Suggestion(String text, int kinds, double score) {
+            this.text = text;
+            this.kinds = kinds;
+            this.score = score;
+        }
+    }
+
+    /** Returns the number of texts in the index */
+    synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Add a use of the given text of the given kind at the given time.
+     */
+    synchronized void add(String text, int kind, long timeMillis) {
+        String key = normalize(text);
+        if (key.isEmpty()) {
+            return;
+        }
+        int minutes = (int) (timeMillis / 60000);
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (index >= 0) {
+            if (mCounts[index] < Integer.MAX_VALUE) {
+                mCounts[index]++;
+            }
+            mLastUsed[index] = Math.max(mLastUsed[index], minutes);
+            mKinds[index] |= kind;
+            if (kind == KIND_QUERY) {
+                mTexts[index] = text.trim();
+            }
+            return;
+        }
+        insert(-index - 1, key, text.trim(), 1, minutes, kind);
+    }
+
+    private void insert(int index, String key, String text, int count, int lastUsed, int kinds) {
+        if (mSize == mKeys.length) {
+            int capacity = mSize * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mTexts = Arrays.copyOf(mTexts, capacity);
+            mCounts = Arrays.copyOf(mCounts, capacity);
+            mLastUsed = Arrays.copyOf(mLastUsed, capacity);
+            mKinds = Arrays.copyOf(mKinds, capacity);
+        }
+        int moved = mSize - index;
+        System.arraycopy(mKeys, index, mKeys, index + 1, moved);
+        System.arraycopy(mTexts, index, mTexts, index + 1, moved);
+        System.arraycopy(mCounts, index, mCounts, index + 1, moved);
+        System.arraycopy(mLastUsed, index, mLastUsed, index + 1, moved);
+        System.arraycopy(mKinds, index, mKinds, index + 1, moved);
+        mKeys[index] = key;
+        mTexts[index] = text;
+        mCounts[index] = count;
+        mLastUsed[index] = lastUsed;
+        mKinds[index] = (byte) kinds;
+        mSize++;
+    }
+
+    /**
+     * Remove the given kind from every text, and the texts that are left without a kind,
+     * e.g. to clear the search history.
+     */
+    synchronized void removeKind(int kind) {
+        boolean[] removed = new boolean[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mKinds[i] &= ~kind;
+            removed[i] = mKinds[i] == 0;
+        }
+        compact(removed);
+    }
+
+    /**
+     * Remove the texts with the lowest weights at the given time until at most the given
+     * number of texts is left.
+     */
+    synchronized void trim(int maxSize, long nowMillis) {
+        if (mSize <= maxSize) {
+            return;
+        }
+        final int nowMinutes = (int) (nowMillis / 60000);
+        Integer[] byScore = new Integer[mSize];
+        for (int i = 0; i < mSize; i++) {
+            byScore[i] = i;
+        }
+        Arrays.sort(byScore, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(score(first, nowMinutes), score(second, nowMinutes));
+            }
+        });
+        boolean[] removed = new boolean[mSize];
+        for (int i = 0; i < mSize - maxSize; i++) {
+            removed[byScore[i]] = true;
+        }
+        compact(removed);
+    }
+
+    /** Remove the given texts, keeping the others in order */
+    private void compact(boolean[] removed) {
+        int size = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (removed[i]) {
+                continue;
+            }
+            mKeys[size] = mKeys[i];
+            mTexts[size] = mTexts[i];
+            mCounts[size] = mCounts[i];
+            mLastUsed[size] = mLastUsed[i];
+            mKinds[size] = mKinds[i];
+            size++;
+        }
+        Arrays.fill(mKeys, size, mSize, null);
+        Arrays.fill(mTexts, size, mSize, null);
+        mSize = size;
+    }
+
+    /**
+     * Returns the texts of the given kind used most recently, the latest first.
+     */
+    synchronized List<String> getRecent(int kind, int limit) {
+        Integer[] matches = new Integer[mSize];
+        int count = 0;
+        for (int i = 0; i < mSize; i++) {
+            if ((mKinds[i] & kind) != 0) {
+                matches[count++] = i;
+            }
+        }
+        Arrays.sort(matches, 0, count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return mLastUsed[second] < mLastUsed[first] ? -1 : (mLastUsed[second] == mLastUsed[first] ? 0 : 1);
+            }
+        });
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, limit); i++) {
+            texts.add(mTexts[matches[i]]);
+        }
+        return texts;
+    }
+
+    /**
+     * Returns at most the given number of texts starting with the given prefix, or within
+     * a typo or two of it, the best first. An empty prefix returns the best past queries.
+     */
+    synchronized List<Suggestion> suggest(String prefix, int limit, long nowMillis) {
+        int nowMinutes = (int) (nowMillis / 60000);
+        TopScores top = new TopScores(limit);
+        String query = normalize(prefix);
+
+        if (query.isEmpty()) {
+            for (int i = 0; i < mSize; i++) {
+                if ((mKinds[i] & KIND_QUERY) != 0) {
+                    top.offer(i, score(i, nowMinutes));
+                }
+            }
+            return top.toSuggestions();
+        }
+
+        // The texts starting with the prefix, which is all there is if there are enough of them
+        int start = lowerBound(query);
+        int end = endOfPrefix(start, query, query.length());
+        int maxTypos = query.length() >= TWO_TYPOS_LENGTH ? 2 : (query.length() >= ONE_TYPO_LENGTH ? 1 : 0);
+        if (end - start >= limit || maxTypos == 0) {
+            for (int i = start; i < end; i++) {
+                top.offer(i, score(i, nowMinutes));
+            }
+        } else {
+            findWithTypos(query, maxTypos, nowMinutes, top);
+        }
+        return top.toSuggestions();
+    }
+
+    /**
+     * Offer every text with a prefix within the given number of typos of the query, where a typo
+     * is a missing, an extra, a wrong or a swapped character.
+     *
+     * The texts are walked in order like the paths of a trie: the row of the edit distances of
+     * a prefix of the current text is only computed once for every text sharing the prefix, and
+     * a whole range of texts is taken or skipped as soon as a longer prefix can't change its
+     * distance anymore.
+     */
+    private void findWithTypos(String query, int maxTypos, int nowMinutes, TopScores top) {
+        int length = query.length();
+        // A prefix longer than this is more than maxTypos away from the query
+        int maxDepth = length + maxTypos + 1;
+        int[][] rows = new int[maxDepth + 1][length + 1];
+        // The smallest distance in every row, and the smallest distance of the query to a prefix
+        // of the current text up to every depth
+        int[] rowMinimum = new int[maxDepth + 1];
+        int[] bestDistance = new int[maxDepth + 1];
+        for (int j = 0; j <= length; j++) {
+            rows[0][j] = j;
+        }
+        bestDistance[0] = length;
+
+        String previous = "";
+        int computedDepth = 0;
+        int i = 0;
+        while (i < mSize) {
+            String key = mKeys[i];
+            int depth = Math.min(computedDepth, commonPrefixLength(previous, key));
+            previous = key;
+            while (true) {
+                // A longer prefix of the texts sharing this one can't get closer than the
+                // smallest distance of the row, so their distance is known once that is no
+                // better than the best distance so far, or too far anyway
+                if (rowMinimum[depth] >= bestDistance[depth] || rowMinimum[depth] > maxTypos) {
+                    int end = endOfPrefix(i, key, depth);
+                    if (bestDistance[depth] <= maxTypos) {
+                        for (int match = i; match < end; match++) {
+                            top.offer(match, score(match, nowMinutes) * Math.pow(TYPO_PENALTY, bestDistance[depth]));
+                        }
+                    }
+                    i = end;
+                    break;
+                }
+                if (depth == key.length() || depth == maxDepth) {
+                    if (bestDistance[depth] <= maxTypos) {
+                        top.offer(i, score(i, nowMinutes) * Math.pow(TYPO_PENALTY, bestDistance[depth]));
+                    }
+                    i++;
+                    break;
+                }
+
+                // Extend the prefix by a character of the text
+                depth++;
+                char c = key.charAt(depth - 1);
+                int[] row = rows[depth];
+                int[] above = rows[depth - 1];
+                row[0] = depth;
+                int minimum = depth;
+                for (int j = 1; j <= length; j++) {
+                    int distance = Math.min(above[j] + 1, row[j - 1] + 1);
+                    distance = Math.min(distance, above[j - 1] + (query.charAt(j - 1) == c ? 0 : 1));
+                    if (depth > 1 && j > 1 && query.charAt(j - 2) == c && query.charAt(j - 1) == key.charAt(depth - 2)) {
+                        distance = Math.min(distance, rows[depth - 2][j - 2] + 1);
+                    }
+                    row[j] = distance;
+                    minimum = Math.min(minimum, distance);
+                }
+                rowMinimum[depth] = minimum;
+                bestDistance[depth] = Math.min(bestDistance[depth - 1], row[length]);
+            }
+            computedDepth = depth;
+        }
+    }
+
+    private static int commonPrefixLength(String first, String second) {
+        int length = Math.min(first.length(), second.length());
+        for (int i = 0; i < length; i++) {
+            if (first.charAt(i) != second.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /** Returns the index of the first key that is not smaller than the given one */
+    private int lowerBound(String key) {
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Returns the index of the first key after the given index that doesn't start with the
+     * first characters of the given prefix. The keys from the given index up to it all do.
+     */
+    private int endOfPrefix(int from, String prefix, int prefixLength) {
+        int low = from;
+        int high = mSize;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mKeys[middle].regionMatches(0, prefix, 0, prefixLength)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /** Returns the weight of the text with the given index at the given time */
+    private double score(int index, int nowMinutes) {
+        double weight = (mKinds[index] & KIND_QUERY) != 0 ? QUERY_WEIGHT : 1;
+        double ageDays = Math.max(0, nowMinutes - mLastUsed[index]) / (double) MINUTES_PER_DAY;
+        return weight * (1 + Math.log(mCounts[index])) * Math.pow(0.5, ageDays / HALF_LIFE_DAYS);
+    }
+
+    /**
+     * Returns the given text lowercased, without accents and with single spaces, which is
+     * how the texts are compared.
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        // Most texts are plain ASCII, which doesn't need the slower Unicode normalization
+        StringBuilder ascii = new StringBuilder(text.length());
+        boolean space = true;
+        for (int i = 0; i < text.length() && ascii != null; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                ascii = null;
+            } else if (c <= ' ') {
+                space = true;
+            } else {
+                if (space && ascii.length() > 0) {
+                    ascii.append(' ');
+                }
+                space = false;
+                ascii.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+            }
+        }
+        if (ascii != null) {
+            return ascii.toString();
+        }
+
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        normalized = DIACRITICS.matcher(normalized).replaceAll("");
+        normalized = WHITESPACE.matcher(normalized.trim()).replaceAll(" ");
+        return normalized.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the written form of the index.
+     *
+     * The layout is: version, text count, and for every text in order: the number of characters
+     * it shares with the text before it, the UTF-8 length and bytes of the rest of it, its count,
+     * the minute it was used last and its kinds. Counts, lengths and minutes are varints.
+     */
+    synchronized byte[] toByteArray() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(64 + mSize * 16);
+        writeVarint(output, VERSION);
+        writeVarint(output, mSize);
+        String previous = "";
+        for (int i = 0; i < mSize; i++) {
+            String text = mTexts[i];
+            int shared = commonPrefixLength(previous, text);
+            // Don't split a surrogate pair
+            if (shared > 0 && Character.isHighSurrogate(text.charAt(shared - 1))) {
+                shared--;
+            }
+            byte[] suffix = text.substring(shared).getBytes(UTF_8);
+            writeVarint(output, shared);
+            writeVarint(output, suffix.length);
+            output.write(suffix, 0, suffix.length);
+            writeVarint(output, mCounts[i]);
+            writeVarint(output, mLastUsed[i]);
+            output.write(mKinds[i]);
+            previous = text;
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns the index written by {@link #toByteArray}.
+     *
+     * @throws IOException if the data was written with another version, or it is corrupt
+     */
+    static SuggestionIndex fromByteArray(byte[] data) throws IOException {
+        int[] position = {0};
+        int version = readVarint(data, position);
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of the suggestions: " + version);
+        }
+        int size = readVarint(data, position);
+        if (size < 0 || size > data.length) {
+            throw new IOException("Invalid number of suggestions: " + size);
+        }
+
+        SuggestionIndex index = new SuggestionIndex();
+        String previous = "";
+        for (int i = 0; i < size; i++) {
+            int shared = readVarint(data, position);
+            int length = readVarint(data, position);
+            if (shared < 0 || shared > previous.length() || length < 0 || position[0] + length > data.length) {
+                throw new IOException("The suggestions are corrupt");
+            }
+            String text = previous.substring(0, shared) + new String(data, position[0], length, UTF_8);
+            position[0] += length;
+            int count = readVarint(data, position);
+            int lastUsed = readVarint(data, position);
+            if (position[0] >= data.length) {
+                throw new IOException("The suggestions are truncated");
+            }
+            int kinds = data[position[0]++];
+            previous = text;
+
+            // The texts were written in order, unless the normalization has changed since
+            String key = normalize(text);
+            if (index.mSize == 0 || key.compareTo(index.mKeys[index.mSize - 1]) > 0) {
+                index.insert(index.mSize, key, text, count, lastUsed, kinds);
+            } else {
+                int existing = Arrays.binarySearch(index.mKeys, 0, index.mSize, key);
+                if (existing < 0) {
+                    index.insert(-existing - 1, key, text, count, lastUsed, kinds);
+                }
+            }
+        }
+        return index;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7f) != 0) {
+            output.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] position) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IOException("The suggestions are truncated");
+            }
+            byte b = data[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in the suggestions");
+    }
+
+    /**
+     * Keeps the indexes of the texts with the highest scores offered to it. Every text is
+     * offered at most once.
+     */
+    private final class TopScores {
+
+        private final int[] mIndexes;
+        private final double[] mScores;
+        private int mCount;
+
+        TopScores(int limit) {
+            mIndexes = new int[limit];
+            mScores = new double[limit];
+        }
+
+        void offer(int index, double score) {
+            if (mCount == mIndexes.length && (mCount == 0 || score <= mScores[mCount - 1])) {
+                return;
+            }
+            int position = Math.min(mCount, mIndexes.length - 1);
+            while (position > 0 && mScores[position - 1] < score) {
+                mIndexes[position] = mIndexes[position - 1];
+                mScores[position] = mScores[position - 1];
+                position--;
+            }
+            mIndexes[position] = index;
+            mScores[position] = score;
+            mCount = Math.min(mCount + 1, mIndexes.length);
+        }
+
+        List<Suggestion> toSuggestions() {
+            if (mCount == 0) {
+                return Collections.emptyList();
+            }
+            List<Suggestion> suggestions = new ArrayList<>(mCount);
+            for (int i = 0; i < mCount; i++) {
+                suggestions.add(new Suggestion(mTexts[mIndexes[i]], mKinds[mIndexes[i]], mScores[i]));
+            }
+            return suggestions;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.android.booklistingapp;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Marks sections of the app's code in the system traces, e.g. the phases of the startup, so they
+ * show up in systrace and in the profiler. The sections are only written on Android 4.3 and up,
+ * on the older versions the calls do nothing.
+ */
+
+public final class Tracing {
+
+    /**
+     * Create a private constructor because no one should ever create a {@link Tracing} object.
+     */
+    private Tracing() {
+    }
+
+    /**
+     * Start a section with the given name, which must be ended with {@link #endSection}
+     * on the same thread.
+     */
+    public static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /** End the section started last on this thread */
+    public static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+}
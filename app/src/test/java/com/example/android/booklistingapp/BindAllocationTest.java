@@ -0,0 +1,102 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the work of {@link BookAdapter#onBindViewHolder} that doesn't involve the views
+ * doesn't allocate once the list has been shown: the texts of a row are formatted and decoded
+ * once, reading them again for the next bind is free, and so is recording the time of the bind.
+ * The allocations are counted by the JVM for the current thread.
+ *
+ * The cover request that the bind hands to Picasso is not covered, Picasso allocates a request
+ * for every image it loads.
+ */
+public class BindAllocationTest {
+
+    private static final int BOOK_COUNT = 40;
+
+    /** Number of times every row is bound while the allocations are counted */
+    private static final int BIND_PASSES = 1000;
+
+    private static List<Book> createBooks() {
+        List<Book> books = new ArrayList<>(BOOK_COUNT);
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            String id = "vol" + i + "AAAAJ";
+            books.add(new Book(id, "http://books.google.com/books/content?id=" + id + "&printsec=frontcover&img=1&zoom=1",
+                    "Title " + i, "Author " + i % 3, i % 4 == 0 ? -1 : 4.99 + i, i % 4 == 0 ? "" : "USD",
+                    i % 5, "https://books.google.com/books?id=" + id));
+        }
+        return books;
+    }
+
+    @Test
+    public void bookFormatsItsDisplayTextsOnce() {
+        Book book = createBooks().get(1);
+        book.prepareDisplayText();
+        assertSame(book.getDisplayPrice(), book.getDisplayPrice());
+        assertSame(book.getDisplayRating(), book.getDisplayRating());
+    }
+
+    @Test
+    public void readingTheRowsAgainAndTimingTheBindsDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        BookTable table = BookTable.of(createBooks());
+
+        // The first binds decode the texts of the rows, and warm up the code
+        long checksum = 0;
+        for (int pass = 0; pass < BIND_PASSES; pass++) {
+            checksum += bindAll(table);
+        }
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        for (int pass = 0; pass < BIND_PASSES; pass++) {
+            checksum += bindAll(table);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertTrue(checksum != 0);
+        // Anything that allocates per row allocates at least BIND_PASSES * BOOK_COUNT objects,
+        // the little that is left is the measurement itself
+        assertTrue("Reading the rows allocated " + allocated + " bytes", allocated < BIND_PASSES);
+    }
+
+    /**
+     * Read the columns of every row and record the time of every bind, like the adapter does,
+     * and return something computed from the columns, so the reads can't be left out.
+     */
+    private static long bindAll(BookTable table) {
+        long checksum = 0;
+        for (int position = 0; position < table.size(); position++) {
+            long bindStart = Metrics.start();
+            String title = table.getTitle(position);
+            String author = table.getAuthor(position);
+            String price = table.getDisplayPrice(position);
+            String rating = table.getRating(position) >= 1.0 ? table.getDisplayRating(position) : null;
+            String coverUrl = table.getCoverImageUrl(position);
+            checksum += System.identityHashCode(title) + System.identityHashCode(author)
+                    + System.identityHashCode(price) + System.identityHashCode(rating)
+                    + System.identityHashCode(coverUrl);
+            Metrics.recordNanos(Metrics.BIND, System.nanoTime() - bindStart);
+        }
+        return checksum;
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        Assume.assumeTrue("The JVM doesn't count the allocations of a thread",
+                ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
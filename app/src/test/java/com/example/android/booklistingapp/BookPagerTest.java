@@ -0,0 +1,61 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link BookPager} tells the end of the results, an empty page, apart from
+ * a page that failed to load, which is loaded again.
+ */
+public class BookPagerTest {
+
+    private static final String BASE_URL = "https://www.googleapis.com/books/v1/volumes?q=android";
+
+    private static List<Book> createPage(int page, int pageSize) {
+        List<Book> books = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            String id = "vol" + page + "x" + i;
+            books.add(new Book(id, null, "Title " + id, "Author", -1, "", 0,
+                    "https://books.google.com/books?id=" + id));
+        }
+        return books;
+    }
+
+    @Test
+    public void anEmptyPageEndsTheResults() {
+        BookPager pager = new BookPager(BASE_URL);
+        pager.addPage(0, createPage(0, pager.getPageSize()));
+        assertEquals(1, pager.getNextPage());
+
+        pager.addPage(1, Collections.<Book>emptyList());
+        assertEquals(-1, pager.getNextPage());
+        assertEquals(pager.getPageSize(), pager.getResidentBooks().size());
+    }
+
+    @Test
+    public void aSearchWithoutResultsHasNoNextPage() {
+        BookPager pager = new BookPager(BASE_URL);
+        pager.addPage(0, Collections.<Book>emptyList());
+        assertEquals(-1, pager.getNextPage());
+        assertTrue(pager.isEmpty());
+    }
+
+    @Test
+    public void aFailedPageIsLoadedAgain() {
+        BookPager pager = new BookPager(BASE_URL);
+        pager.addPage(0, createPage(0, pager.getPageSize()));
+
+        pager.addPage(1, null);
+        assertEquals(1, pager.getNextPage());
+
+        pager.addPage(1, createPage(1, pager.getPageSize()));
+        assertEquals(2, pager.getNextPage());
+        assertEquals(2 * pager.getPageSize(), pager.getResidentBooks().size());
+    }
+}
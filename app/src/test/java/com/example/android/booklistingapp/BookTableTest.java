@@ -0,0 +1,115 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link BookTable} keeps the values of the books, and that it retains much less
+ * heap than the {@link Book} objects it replaces.
+ */
+public class BookTableTest {
+
+    /** Number of books of the heap measurement, large enough to drown out the noise */
+    private static final int HEAP_BOOK_COUNT = 20000;
+
+    private static final String[] AUTHORS = {"Jane Austen", "Charles Dickens", "Mark Twain", null};
+
+    private static final String[] CURRENCIES = {"USD", "EUR", "GBP"};
+
+    /** Returns the given number of books shaped like the books of the volumes responses */
+    private static List<Book> createBooks(int count) {
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = "vol" + Integer.toString(i, 36) + "AAAAJ";
+            String coverUrl = "http://books.google.com/books/content?id=" + id
+                    + "&printsec=frontcover&img=1&zoom=1&edge=curl&source=gbs_api";
+            String url = "https://books.google.com/books/about/Title.html?hl=&id=" + id;
+            // Like in the responses, a book that isn't for sale has neither a price nor a currency
+            boolean forSale = i % 7 != 0;
+            Book book = new Book(id, coverUrl, "A title of book number " + i, AUTHORS[i % AUTHORS.length],
+                    forSale ? 9.99 + i % 5 : -1, forSale ? CURRENCIES[i % CURRENCIES.length] : "",
+                    (i % 10) / 2.0, url);
+            book.prepareDisplayText();
+            books.add(book);
+        }
+        return books;
+    }
+
+    @Test
+    public void keepsTheValuesOfTheBooks() {
+        List<Book> books = createBooks(50);
+        books.add(new Book(null, null, null, null, -1, "", 0, null));
+        BookTable table = BookTable.of(books);
+
+        assertEquals(books.size(), table.size());
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            assertEquals(book.getId(), table.getId(i));
+            assertEquals(book.getTitle(), table.getTitle(i));
+            assertEquals(book.getAuthor(), table.getAuthor(i));
+            assertEquals(book.getPriceAmount(), table.getPriceAmount(i), 0);
+            assertEquals(book.getCurrency(), table.getCurrency(i));
+            assertEquals(book.getRating(), table.getRating(i), 0);
+            assertEquals(book.getCoverImageUrl(), table.getCoverImageUrl(i));
+            assertEquals(book.getUrl(), table.getUrl(i));
+            assertEquals(book.getDisplayPrice(), table.getDisplayPrice(i));
+            assertEquals(book.getDisplayRating(), table.getDisplayRating(i));
+            assertTrue(table.contentEquals(i, BookTable.of(new ArrayList<>(books)), i));
+        }
+        assertNull(table.getTitle(books.size() - 1));
+        assertNull(table.getCoverImageUrl(books.size() - 1));
+    }
+
+    @Test
+    public void bindingARowAgainReturnsTheSameTexts() {
+        BookTable table = BookTable.of(createBooks(10));
+        for (int i = 0; i < table.size(); i++) {
+            assertSame(table.getTitle(i), table.getTitle(i));
+            assertSame(table.getCoverImageUrl(i), table.getCoverImageUrl(i));
+        }
+
+        // A view of the table shares the decoded texts
+        BookTable view = table.select(new int[]{3, 1}, 0, 2);
+        assertSame(table.getTitle(3), view.getTitle(0));
+        assertSame(table.getCoverImageUrl(1), view.getCoverImageUrl(1));
+    }
+
+    @Test
+    public void retainsLessThanHalfTheHeapOfTheBooks() {
+        long baseline = usedHeap();
+        List<Book> books = createBooks(HEAP_BOOK_COUNT);
+        long booksBytes = usedHeap() - baseline;
+
+        BookTable table = BookTable.of(books);
+        books = null;
+        long tableBytes = usedHeap() - baseline;
+
+        assertEquals(HEAP_BOOK_COUNT, table.size());
+        assertTrue("The books retain " + booksBytes / HEAP_BOOK_COUNT + " B/book, the table "
+                        + tableBytes / HEAP_BOOK_COUNT + " B/book",
+                tableBytes * 2 < booksBytes);
+    }
+
+    /** Returns the heap in use after collecting the garbage, as far as the JVM lets us */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
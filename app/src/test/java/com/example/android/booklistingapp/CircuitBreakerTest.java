@@ -0,0 +1,89 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the transitions of a {@link CircuitBreaker}: closed until enough failures in a row,
+ * open for a while, then a single probe that closes or opens it again.
+ */
+public class CircuitBreakerTest {
+
+    private static final int FAILURE_THRESHOLD = 3;
+
+    private static final long OPEN_MILLIS = 200;
+
+    @Test
+    public void staysClosedBelowTheThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+        fail(circuitBreaker, FAILURE_THRESHOLD - 1);
+        assertTrue(circuitBreaker.allowRequest());
+
+        // A success starts counting the failures in a row again
+        circuitBreaker.onSuccess();
+        fail(circuitBreaker, FAILURE_THRESHOLD - 1);
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void opensAfterTheThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+        fail(circuitBreaker, FAILURE_THRESHOLD);
+        assertFalse(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void letsASingleProbeThroughOnceTheOpenTimeIsOver() throws InterruptedException {
+        CircuitBreaker circuitBreaker = openCircuit();
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void closesWhenTheProbeSucceeds() throws InterruptedException {
+        CircuitBreaker circuitBreaker = openCircuit();
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onSuccess();
+        assertTrue(circuitBreaker.allowRequest());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void opensAgainWhenTheProbeFails() throws InterruptedException {
+        CircuitBreaker circuitBreaker = openCircuit();
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+        assertFalse(circuitBreaker.allowRequest());
+
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void letsAnotherProbeThroughWhenTheProbeIsCanceled() throws InterruptedException {
+        CircuitBreaker circuitBreaker = openCircuit();
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onCanceled();
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    /** Returns a circuit breaker that was opened and whose open time is over */
+    private static CircuitBreaker openCircuit() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+        fail(circuitBreaker, FAILURE_THRESHOLD);
+        assertFalse(circuitBreaker.allowRequest());
+        Thread.sleep(OPEN_MILLIS + 50);
+        return circuitBreaker;
+    }
+
+    private static void fail(CircuitBreaker circuitBreaker, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(circuitBreaker.allowRequest());
+            circuitBreaker.onFailure();
+        }
+    }
+}
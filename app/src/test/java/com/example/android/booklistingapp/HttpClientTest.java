@@ -0,0 +1,106 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the shared {@link HttpClient} against a local server: the responses are requested
+ * compressed and decompressed transparently, and the requests reuse the same connection.
+ */
+public class HttpClientTest {
+
+    private static final String BODY = "{\"kind\":\"books#volumes\",\"totalItems\":0,\"items\":[]}";
+
+    private MockWebServer mServer;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void requestsAndDecompressesGzip() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(gzip(BODY)));
+
+        Response response = call("/books/v1/volumes?q=android");
+        // The body went over the wire compressed, and the client decompressed it
+        assertEquals("gzip", response.networkResponse().header("Content-Encoding"));
+        assertNull(response.header("Content-Encoding"));
+        assertEquals(BODY, response.body().string());
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("gzip", request.getHeader("Accept-Encoding"));
+    }
+
+    @Test
+    public void reusesTheConnection() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setBody(BODY));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            Response response = call("/books/v1/volumes?q=android&startIndex=" + i);
+            assertEquals(BODY, response.body().string());
+        }
+
+        // The sequence number counts the requests made on the same connection
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, mServer.takeRequest().getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void keepsThePoolWhenTheTimeoutsChange() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(BODY));
+        mServer.enqueue(new MockResponse().setBody(BODY));
+
+        call("/books/v1/volumes?q=first").body().string();
+        HttpClient.setTimeouts(HttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS + 1000,
+                HttpClient.DEFAULT_READ_TIMEOUT_MILLIS + 1000);
+        try {
+            call("/books/v1/volumes?q=second").body().string();
+        } finally {
+            HttpClient.setTimeouts(HttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                    HttpClient.DEFAULT_READ_TIMEOUT_MILLIS);
+        }
+
+        assertEquals(0, mServer.takeRequest().getSequenceNumber());
+        assertEquals(1, mServer.takeRequest().getSequenceNumber());
+    }
+
+    private Response call(String path) throws IOException {
+        return HttpClient.get().newCall(new Request.Builder().url(mServer.url(path)).build()).execute();
+    }
+
+    private static Buffer gzip(String text) throws IOException {
+        Buffer buffer = new Buffer();
+        BufferedSink sink = Okio.buffer(new GzipSink(buffer));
+        sink.writeUtf8(text);
+        sink.close();
+        return buffer;
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the {@link RequestExecutor} against a local server that fails on purpose: the failed
+ * requests are retried, the slow ones are hedged, and the circuit opens and closes again.
+ */
+public class RequestExecutorTest {
+
+    private static final int FAILURE_THRESHOLD = 3;
+
+    private static final long OPEN_MILLIS = 300;
+
+    /** Time to the response headers of the requests timed before the hedging tests */
+    private static final long TIMED_TTFB_MILLIS = 500;
+
+    private MockWebServer mServer;
+
+    private OkHttpClient mClient;
+
+    private CircuitBreaker mCircuitBreaker;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        // The failures are retried by the executor only, not by OkHttp
+        mClient = new OkHttpClient.Builder()
+                .retryOnConnectionFailure(false)
+                .build();
+        mCircuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+        // Without timed requests nothing is hedged
+        Metrics.reset();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Metrics.reset();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void retriesServerErrors() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setResponseCode(500));
+        mServer.enqueue(new MockResponse().setBody("books"));
+
+        Response response = execute(new QueryUtils.InFlightRequest());
+        assertEquals(200, response.code());
+        assertEquals("books", response.body().string());
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void retriesConnectionFailures() throws IOException {
+        mServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        mServer.enqueue(new MockResponse().setBody("books"));
+
+        Response response = execute(new QueryUtils.InFlightRequest());
+        assertEquals("books", response.body().string());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void returnsTheLastErrorAfterTheLastAttempt() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(503));
+        }
+
+        Response response = execute(new QueryUtils.InFlightRequest());
+        assertEquals(503, response.code());
+        response.close();
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(404));
+        mServer.enqueue(new MockResponse().setBody("books"));
+
+        Response response = execute(new QueryUtils.InFlightRequest());
+        assertEquals(404, response.code());
+        response.close();
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void waitsForTheDelayAskedForByTheServer() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        mServer.enqueue(new MockResponse().setBody("books"));
+
+        long start = System.nanoTime();
+        Response response = execute(new QueryUtils.InFlightRequest());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals("books", response.body().string());
+        assertTrue("Retried after " + elapsedMillis + " ms", elapsedMillis >= 1000);
+    }
+
+    @Test
+    public void stopsWaitingToRetryWhenCanceled() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "5"));
+
+        final QueryUtils.InFlightRequest inFlight = new QueryUtils.InFlightRequest();
+        inFlight.join();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.release();
+            }
+        }).start();
+
+        long start = System.nanoTime();
+        try {
+            execute(inFlight);
+            fail("The cancelled request was retried");
+        } catch (InterruptedIOException expected) {
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void hedgesASlowRequest() throws IOException {
+        recordTimedRequests();
+        // The first request is answered late, the hedged one at once
+        final AtomicInteger requestCount = new AtomicInteger();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (requestCount.getAndIncrement() == 0) {
+                    Thread.sleep(3000);
+                    return new MockResponse().setBody("slow");
+                }
+                return new MockResponse().setBody("hedge");
+            }
+        });
+
+        long start = System.nanoTime();
+        Response response = execute(new QueryUtils.InFlightRequest());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals("hedge", response.body().string());
+        assertEquals(2, mServer.getRequestCount());
+        assertTrue("Answered after " + elapsedMillis + " ms", elapsedMillis < 3000);
+    }
+
+    @Test
+    public void doesNotHedgeAFastRequest() throws IOException {
+        recordTimedRequests();
+        mServer.enqueue(new MockResponse().setBody("books"));
+        mServer.enqueue(new MockResponse().setBody("hedge"));
+
+        Response response = execute(new QueryUtils.InFlightRequest());
+        assertEquals("books", response.body().string());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void opensTheCircuitAndClosesItAgain() throws Exception {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(503));
+        }
+        execute(new QueryUtils.InFlightRequest()).close();
+        assertEquals(FAILURE_THRESHOLD, mServer.getRequestCount());
+
+        // The circuit is open, the request is rejected without reaching the server
+        try {
+            execute(new QueryUtils.InFlightRequest());
+            fail("The request was made while the circuit was open");
+        } catch (IOException expected) {
+        }
+        assertEquals(FAILURE_THRESHOLD, mServer.getRequestCount());
+
+        // Once the circuit has been open for a while, a request is let through and closes it
+        Thread.sleep(OPEN_MILLIS + 50);
+        mServer.enqueue(new MockResponse().setBody("books"));
+        mServer.enqueue(new MockResponse().setBody("books"));
+        assertEquals("books", execute(new QueryUtils.InFlightRequest()).body().string());
+        assertEquals("books", execute(new QueryUtils.InFlightRequest()).body().string());
+        assertEquals(FAILURE_THRESHOLD + 2, mServer.getRequestCount());
+    }
+
+    /** Record enough timed requests for the slower ones to be hedged */
+    private static void recordTimedRequests() {
+        for (int i = 0; i < 50; i++) {
+            Metrics.recordNanos(Metrics.API_PREFIX + Metrics.TTFB, TimeUnit.MILLISECONDS.toNanos(TIMED_TTFB_MILLIS));
+        }
+    }
+
+    private Response execute(QueryUtils.InFlightRequest inFlight) throws IOException {
+        Request request = new Request.Builder().url(mServer.url("/books/v1/volumes?q=android")).build();
+        return RequestExecutor.execute(mClient, request, inFlight, mCircuitBreaker);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.android.booklistingapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encoding and the decoding of the books of the 40 item fixture with the
+ * BookCodec, which is what saving and restoring the list, and the disk cache, cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+
+    private List<Book> mBooks;
+
+    private byte[] mEncoded;
+
+    @Setup
+    public void parseFixture() throws IOException {
+        mBooks = BookJsonParser.parse(
+                new ByteArrayInputStream(ParseBenchmark.Fixtures.read("volumes_40.json")), null);
+        mEncoded = BookCodec.encode(mBooks);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BookCodec.encode(mBooks);
+    }
+
+    @Benchmark
+    public List<Book> decode() throws IOException {
+        return BookCodec.decode(mEncoded);
+    }
+}
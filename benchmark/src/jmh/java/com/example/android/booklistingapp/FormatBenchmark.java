@@ -0,0 +1,45 @@
+package com.example.android.booklistingapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the formatting of the display texts of the books of the 40 item fixture. Binding
+ * the formatted texts to the rows is measured by {@link TableBenchmark#bindRows}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormatBenchmark {
+
+    private List<Book> mBooks;
+
+    @Setup
+    public void parseFixture() throws IOException {
+        mBooks = BookJsonParser.parse(
+                new ByteArrayInputStream(ParseBenchmark.Fixtures.read("volumes_40.json")), null);
+    }
+
+    /**
+     * Format the price and the rating of every book, which is done once per book
+     * when the books are loaded.
+     */
+    @Benchmark
+    public void formatRows(Blackhole blackhole) {
+        for (Book book : mBooks) {
+            blackhole.consume(BookFormatter.formatPrice(book.getPriceAmount(), book.getCurrency()));
+            blackhole.consume(BookFormatter.formatBookRating(book.getRating()));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.booklistingapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the volumes responses are parsed by the {@link BookJsonParser}.
+ * Run with the gc profiler (the default of this module) to see the allocation rate as well.
+ *
+ * The fixtures are responses of the volumes request with 10 and 40 items, and the 40 item
+ * response again, trimmed down by the "fields" parameter of the request. The size of the
+ * fixtures is the number of bytes transferred by the request, before compression.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+    @Param({"volumes_10.json", "volumes_40.json", "volumes_40_fields.json"})
+    public String fixture;
+
+    private byte[] mResponse;
+
+    @Setup
+    public void readFixture() throws IOException {
+        mResponse = Fixtures.read(fixture);
+    }
+
+    /**
+     * Parse the response with the streaming parser of the app.
+     */
+    @Benchmark
+    public List<Book> parse() throws IOException {
+        return BookJsonParser.parse(new ByteArrayInputStream(mResponse), null);
+    }
+
+    /**
+     * Read the whole response into a String line by line, the way the app did before the
+     * streaming parser, which was followed by building a JSONObject of it. Kept as a baseline
+     * of the cost that buffering alone adds to every search.
+     */
+    @Benchmark
+    public String readToString() throws IOException {
+        StringBuilder output = new StringBuilder();
+        BufferedReader bufferedReader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(mResponse), Charset.forName("UTF-8")));
+        String line = bufferedReader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = bufferedReader.readLine();
+        }
+        return output.toString();
+    }
+
+    /**
+     * Reads the fixtures from the resources of the benchmarks.
+     */
+    static final class Fixtures {
+
+        private Fixtures() {
+        }
+
+        static byte[] read(String name) throws IOException {
+            InputStream in = ParseBenchmark.class.getResourceAsStream("/fixtures/" + name);
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.booklistingapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookups of the SuggestionIndex, which run on every keystroke in the search bar,
+ * in an index of tens of thousands of titles, authors and queries made of common words.
+ * The lookups have to stay well below the 16ms of a frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SuggestionBenchmark {
+
+    private static final String[] WORDS = {"harry", "potter", "hobbit", "lord", "rings", "tolkien",
+            "rowling", "game", "thrones", "martin", "dune", "herbert", "foundation", "asimov",
+            "neuromancer", "gibson", "hyperion", "simmons", "the", "of", "and"};
+
+    private static final long NOW = 1500000000000L;
+
+    @Param({"10000", "50000"})
+    public int size;
+
+    private SuggestionIndex mIndex;
+
+    private byte[] mWritten;
+
+    @Setup
+    public void buildIndex() {
+        Random random = new Random(1);
+        mIndex = new SuggestionIndex();
+        while (mIndex.size() < size) {
+            StringBuilder text = new StringBuilder();
+            int wordCount = 1 + random.nextInt(4);
+            for (int i = 0; i < wordCount; i++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            text.append(random.nextInt(1000));
+            int kind = random.nextInt(10) == 0 ? SuggestionIndex.KIND_QUERY : SuggestionIndex.KIND_TITLE;
+            mIndex.add(text.toString(), kind, NOW - random.nextInt(1000000000));
+        }
+        mWritten = mIndex.toByteArray();
+    }
+
+    /** A short prefix matching thousands of texts */
+    @Benchmark
+    public List<SuggestionIndex.Suggestion> suggestPrefix() {
+        return mIndex.suggest("the", 8, NOW);
+    }
+
+    /** A prefix with two typos, which walks the index for the texts close to it */
+    @Benchmark
+    public List<SuggestionIndex.Suggestion> suggestWithTypos() {
+        return mIndex.suggest("tolkein lrod", 8, NOW);
+    }
+
+    /** The empty search bar, which shows the best past queries */
+    @Benchmark
+    public List<SuggestionIndex.Suggestion> suggestEmpty() {
+        return mIndex.suggest("", 8, NOW);
+    }
+
+    @Benchmark
+    public SuggestionIndex read() throws IOException {
+        return SuggestionIndex.fromByteArray(mWritten);
+    }
+}
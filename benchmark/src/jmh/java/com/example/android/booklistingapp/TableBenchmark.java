@@ -0,0 +1,61 @@
+package com.example.android.booklistingapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures storing the books of the 40 item fixture in a BookTable, which is done for every
+ * page that is loaded, and reading the columns of every row of the table the way the rows
+ * of the list are bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TableBenchmark {
+
+    private List<Book> mBooks;
+
+    private BookTable mTable;
+
+    @Setup
+    public void parseFixture() throws IOException {
+        mBooks = BookJsonParser.parse(
+                new ByteArrayInputStream(ParseBenchmark.Fixtures.read("volumes_40.json")), null);
+        mTable = BookTable.of(mBooks);
+    }
+
+    @Benchmark
+    public BookTable build() {
+        return BookTable.of(mBooks);
+    }
+
+    /**
+     * Read the columns of every row the way BookAdapter.onBindViewHolder reads them, which is
+     * what binding a row costs apart from the views. The gc profiler should report no
+     * allocations for this benchmark.
+     */
+    @Benchmark
+    public void bindRows(Blackhole blackhole) {
+        BookTable table = mTable;
+        for (int position = 0; position < table.size(); position++) {
+            blackhole.consume(table.getTitle(position));
+            blackhole.consume(table.getAuthor(position));
+            blackhole.consume(table.getDisplayPrice(position));
+            if (table.getRating(position) >= 1.0) {
+                blackhole.consume(table.getDisplayRating(position));
+            }
+            blackhole.consume(table.getCoverImageUrl(position));
+        }
+    }
+}
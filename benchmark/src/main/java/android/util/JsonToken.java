@@ -0,0 +1,18 @@
+package android.util;
+
+/**
+ * JVM stand-in for the Android framework class of the same name, so the app's parser can be
+ * benchmarked outside of a device. See {@link JsonReader}.
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}